@@ -0,0 +1,104 @@
+package tablut;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** JMH benchmarks of the Board operations used by search, each run over
+ *  the midgame positions of SearchBenchmark.  Run with "make bench" in
+ *  the tablut directory.
+ *  @author Sameer Varma
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BoardBenchmarks {
+
+    /** Number of positions in the corpus. */
+    private static final int POSITIONS = 16;
+
+    /** Build the corpus and the moves of its positions. */
+    @Setup
+    public void setup() {
+        List<Board> positions = SearchBenchmark.positions(POSITIONS);
+        _boards = positions.toArray(new Board[0]);
+        _moves = new Move[_boards.length][];
+        for (int i = 0; i < _boards.length; i += 1) {
+            Board board = _boards[i];
+            _moves[i] = board.legalMoves(board.turn()).toArray(new Move[0]);
+        }
+        _buffer = new Move[Board.MAX_MOVES];
+    }
+
+    /** Make and undo every legal move in each position.  The two are
+     *  measured together, since each is needed to restore the other's
+     *  starting state. */
+    @Benchmark
+    public int makeMoveUndo() {
+        int count = 0;
+        for (int i = 0; i < _boards.length; i += 1) {
+            Board board = _boards[i];
+            for (Move move : _moves[i]) {
+                board.makeMove(move);
+                count += board.moveCount();
+                board.undo();
+            }
+        }
+        return count;
+    }
+
+    /** Generate the moves of each position into a reused buffer. */
+    @Benchmark
+    public int legalMoves() {
+        int count = 0;
+        for (Board board : _boards) {
+            count += board.legalMoves(board.turn(), _buffer);
+        }
+        return count;
+    }
+
+    /** Generate the moves of each position as a new list. */
+    @Benchmark
+    public void legalMovesList(Blackhole sink) {
+        for (Board board : _boards) {
+            sink.consume(board.legalMoves(board.turn()));
+        }
+    }
+
+    /** Encode each position as a string. */
+    @Benchmark
+    public void encodedBoard(Blackhole sink) {
+        for (Board board : _boards) {
+            sink.consume(board.encodedBoard());
+        }
+    }
+
+    /** Copy each position. */
+    @Benchmark
+    public void copy(Blackhole sink) {
+        for (Board board : _boards) {
+            sink.consume(new Board(board));
+        }
+    }
+
+    /** The corpus. */
+    private Board[] _boards;
+    /** _moves[i] contains the legal moves in _boards[i]. */
+    private Move[][] _moves;
+    /** Buffer for legalMoves. */
+    private Move[] _buffer;
+}
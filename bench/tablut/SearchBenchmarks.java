@@ -0,0 +1,67 @@
+package tablut;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** JMH benchmark of fixed-depth AI search over the midgame positions of
+ *  SearchBenchmark.  Each invocation gets a new searcher, with no
+ *  transposition table and empty killer and history tables, so that
+ *  every invocation searches the same trees.
+ *  @author Sameer Varma
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmarks {
+
+    /** Number of positions in the corpus. */
+    private static final int POSITIONS = 8;
+
+    /** Search depth. */
+    @Param({ "2", "3" })
+    public int depth;
+
+    /** Build the corpus. */
+    @Setup
+    public void setup() {
+        List<Board> positions = SearchBenchmark.positions(POSITIONS);
+        _boards = positions.toArray(new Board[0]);
+    }
+
+    /** Make a new searcher, so that nothing learned by one invocation's
+     *  searches affects the next. */
+    @Setup(Level.Invocation)
+    public void newSearcher() {
+        _ai = new AI(0, 1);
+    }
+
+    /** Search each position to depth levels. */
+    @Benchmark
+    public void search(Blackhole sink) {
+        for (Board board : _boards) {
+            sink.consume(_ai.findMove(board, depth, Long.MAX_VALUE));
+        }
+    }
+
+    /** The corpus. */
+    private Board[] _boards;
+    /** The searcher. */
+    private AI _ai;
+}
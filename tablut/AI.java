@@ -1,5 +1,12 @@
 package tablut;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /** A Player that automatically generates moves.
@@ -7,32 +14,140 @@ package tablut;
  */
 class AI extends Player {
 
-    /** A position-score magnitude indicating a win (for white if positive,
-     *  black if negative). */
+    /** A position-score magnitude indicating a win (for the side to move
+     *  if positive, the opponent if negative). */
     private static final int WINNING_VALUE = Integer.MAX_VALUE - 20;
     /** A position-score magnitude indicating a forced win in a subsequent
      *  move.  This differs from WINNING_VALUE to avoid putting off wins. */
     private static final int WILL_WIN_VALUE = Integer.MAX_VALUE - 40;
+    /** Magnitude of the score of a position the tablebase shows to be
+     *  won in no moves.  A win in D moves scores D less, so that shorter
+     *  wins are preferred. */
+    private static final int TABLEBASE_WIN_VALUE = WILL_WIN_VALUE - 1;
+    /** Result of tablebaseScore for positions the tablebase does not
+     *  decide. */
+    private static final int NO_SCORE = Integer.MIN_VALUE;
     /** A magnitude greater than a normal value. */
     private static final int INFTY = Integer.MAX_VALUE;
-    /** Double value used to cause small randomization of moves. */
-    private static final double RANDOM = 0.001;
+    /** Half the width of the first aspiration window around the previous
+     *  iteration's score, in evaluator units (hundredths of a white
+     *  piece).  The window doubles on each failure. */
+    private static final int ASPIRATION_WINDOW = 25;
+    /** Largest depth searched by iterative deepening. */
+    static final int MAX_DEPTH = 64;
+    /** Number of nodes searched between checks of the clock. */
+    private static final int TIME_CHECK_INTERVAL = 1024;
+    /** Move-ordering scores of the hash move, of captures and king moves
+     *  to the edge, and of the first killer move.  Other moves score
+     *  their history count, which stays below KILLER_SCORE - 1. */
+    private static final int HASH_SCORE = 1 << 30, TACTICAL_SCORE = 1 << 29,
+        KILLER_SCORE = 1 << 28;
+    /** Number of killer moves remembered per ply. */
+    private static final int KILLERS = 2;
+    /** Size of the history table: more than the largest move code
+     *  without flags (see Move.code). */
+    private static final int HISTORY_SIZE = 1 << (2 * Move.SQUARE_BITS);
+    /** Most moves searched beyond the nominal depth by quiescence. */
+    private static final int QUIESCENCE_DEPTH = 8;
+    /** Most quiescence nodes searched below one leaf of the main
+     *  search. */
+    private static final int QUIESCENCE_NODES = 64;
+    /** Default size of the transposition table, in megabytes. */
+    static final int DEFAULT_TABLE_SIZE = 16;
+    /** Most time spent pondering one position, as a multiple of the
+     *  time per move. */
+    private static final int PONDER_LIMIT = 8;
+    /** Deadline of a search that must stop at once. */
+    private static final long STOPPED = Long.MIN_VALUE;
 
 
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
     AI() {
-        this(null, null);
+        this(DEFAULT_TABLE_SIZE);
     }
 
-    /** A new AI playing PIECE under control of CONTROLLER. */
-    AI(Piece piece, Controller controller) {
+    /** A new AI template whose players share a transposition table of
+     *  MEGABYTES megabytes, or use none if MEGABYTES is 0. */
+    AI(int megabytes) {
+        this(megabytes, 1);
+    }
+
+    /** A new AI template whose players share a transposition table of
+     *  MEGABYTES megabytes (none if MEGABYTES is 0) and search with
+     *  THREADS threads. */
+    AI(int megabytes, int threads) {
+        this(megabytes, threads, new WeightedEvaluator());
+    }
+
+    /** A new AI template whose players share a transposition table of
+     *  MEGABYTES megabytes (none if MEGABYTES is 0), search with THREADS
+     *  threads, and score leaves with EVALUATOR. */
+    AI(int megabytes, int threads, Evaluator evaluator) {
+        this(null, null,
+             megabytes > 0 ? new TranspositionTable(megabytes) : null,
+             threads > 1 ? new ForkJoinPool(threads) : null, evaluator);
+    }
+
+    /** A new AI playing PIECE under control of CONTROLLER, using TABLE
+     *  (if not null) as its transposition table, POOL (if not null)
+     *  to search root moves in parallel, and EVALUATOR to score
+     *  leaves. */
+    private AI(Piece piece, Controller controller, TranspositionTable table,
+               ForkJoinPool pool, Evaluator evaluator) {
         super(piece, controller);
+        _table = table;
+        _pool = pool;
+        _evaluator = evaluator;
+    }
+
+    /** A helper that searches part of the tree for SEARCHER, sharing its
+     *  table and deadline but keeping its own counts. */
+    private AI(AI searcher) {
+        this(searcher.myPiece(), searcher._controller, searcher._table,
+             null, searcher._evaluator);
+        _deadline = searcher._deadline;
+        _timed = searcher._timed;
+        _tablebase = searcher._tablebase;
+        System.arraycopy(searcher._history, 0, _history, 0, HISTORY_SIZE);
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        AI player = new AI(piece, controller, _table, _pool, _evaluator);
+        player._book = _book;
+        player._tablebase = _tablebase;
+        player._pondering = _pondering;
+        return player;
+    }
+
+    /** Iff PONDERING, have players created from this template search
+     *  the position expected after each of their moves while their
+     *  opponents choose a reply. */
+    void setPondering(boolean pondering) {
+        _pondering = pondering;
+    }
+
+    /** Play the moves in BOOK (if not null) when possible, rather than
+     *  searching.  Players created from this template share BOOK. */
+    void setOpeningBook(OpeningBook book) {
+        _book = book;
+    }
+
+    /** Take the values of positions in TABLEBASE (if not null) as exact
+     *  during the search.  Players created from this template share
+     *  TABLEBASE. */
+    void setTablebase(Tablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Stop the threads of my parallel search, if any.  Neither I nor
+     *  the players created from this template may search in parallel
+     *  afterwards. */
+    void shutdown() {
+        if (_pool != null) {
+            _pool.shutdown();
+        }
     }
 
     @Override
@@ -47,87 +162,858 @@ class AI extends Player {
         return false;
     }
 
+    @Override
+    void stopThinking() {
+        if (_ponderThread != null) {
+            _deadline.set(STOPPED);
+            joinPonderThread();
+        }
+    }
+
     /** Return a move for me from the current position, assuming there
-     *  is a move. */
+     *  is a move.  Searches one level deeper at a time until the
+     *  controller's time budget for a move runs out, using the best move
+     *  of each completed iteration.  If I was pondering this position,
+     *  continues that search instead. */
     private Move findMove() {
-        int s;
-        if (myPiece() == Piece.WHITE) {
-            s = 1;
+        long start = System.currentTimeMillis();
+        Move move = null;
+        if (_ponderThread != null) {
+            move = finishPondering();
+        }
+        if (move == null) {
+            move = findMove(board(), MAX_DEPTH, _controller.moveTime());
+        }
+        if (_bookMove) {
+            _controller.logComment("%s: book move", myPiece().toName());
         } else {
-            s = -1;
+            reportSearch(System.currentTimeMillis() - start);
+        }
+        if (_pondering) {
+            startPondering(move);
+        }
+        return move;
+    }
+
+    /** Start searching, on a thread of its own, the position expected
+     *  after my MOVE from the current position and the reply predicted
+     *  by my principal variation, if there is one and the game is not
+     *  over.  The search goes on until finishPondering or stopThinking
+     *  stops it, or for at most PONDER_LIMIT times the time per move. */
+    private void startPondering(Move move) {
+        if (_principalVariation.size() < 2) {
+            return;
+        }
+        Board board = new Board(board());
+        board.makeMove(move);
+        Move reply = _principalVariation.get(1);
+        if (board.winner() != null || !board.isLegal(reply)) {
+            return;
+        }
+        board.makeMove(reply);
+        if (board.winner() != null) {
+            return;
+        }
+        _expected = _principalVariation;
+        _ponderKey = board.key();
+        long moveTime = _controller.moveTime();
+        setDeadline(moveTime > Long.MAX_VALUE / PONDER_LIMIT ? Long.MAX_VALUE
+                    : PONDER_LIMIT * moveTime);
+        _ponderThread = new Thread(() -> {
+            _ponderMove = deepen(board, MAX_DEPTH);
+        });
+        _ponderThread.setDaemon(true);
+        _ponderThread.start();
+    }
+
+    /** Stop pondering.  If the current position is the one I was
+     *  pondering (a ponder hit), first allow the search the controller's
+     *  time per move from now, and return its move.  Otherwise, stop the
+     *  search at once, leaving what it stored in the transposition
+     *  table, and return null. */
+    private Move finishPondering() {
+        boolean hit = board().key() == _ponderKey;
+        if (hit) {
+            _budget = _controller.moveTime();
+            _deadline.set(System.currentTimeMillis() + _budget);
+        } else {
+            _deadline.set(STOPPED);
+        }
+        joinPonderThread();
+        _controller.logComment("%s: ponder %s", myPiece().toName(),
+                               hit ? "hit" : "miss");
+        return hit ? _ponderMove : null;
+    }
+
+    /** Wait for the pondering thread to finish. */
+    private void joinPonderThread() {
+        try {
+            _ponderThread.join();
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException(excp);
+        }
+        _ponderThread = null;
+    }
+
+    /** Return a move for the side to move on BOARD, which is unchanged,
+     *  assuming there is a move.  Plays the opening book's move, if it
+     *  has one, and otherwise searches one level deeper at a time, up
+     *  to MAXDEPTH levels, until MILLIS milliseconds have passed.  The
+     *  result depends only on BOARD, MAXDEPTH, the book, and the contents
+     *  of the transposition table, unless the time runs out. */
+    Move findMove(Board board, int maxDepth, long millis) {
+        setDeadline(millis);
+        return deepen(board, maxDepth);
+    }
+
+    /** Make the current search stop MILLIS milliseconds from now. */
+    private void setDeadline(long millis) {
+        long now = System.currentTimeMillis();
+        _budget = millis;
+        _deadline.set(millis >= Long.MAX_VALUE - now ? Long.MAX_VALUE
+                      : now + millis);
+    }
+
+    /** Return a move for BOARD as for findMove, searching until the
+     *  deadline set by setDeadline or a later change to it. */
+    private Move deepen(Board board, int maxDepth) {
+        _nodes = _tableCutoffs = 0;
+        _expanded = _generated = _searched = 0;
+        _quiescenceNodes = _tablebaseHits = 0;
+        _cutoffs = _firstMoveCutoffs = _researches = 0;
+        _aspirationResearches = 0;
+        _depth = 0;
+        _bookMove = false;
+        if (_book != null) {
+            Move move = _book.move(board);
+            if (move != null) {
+                _bookMove = true;
+                _principalVariation = new ArrayList<>();
+                _principalVariation.add(move);
+                _lastFoundMove = move;
+                return move;
+            }
+        }
+        Board b = new Board(board);
+        _ply = 0;
+        for (int[] killers : _killers) {
+            Arrays.fill(killers, Move.NO_MOVE);
         }
-        Board b = new Board(board());
-        findMove(b, maxDepth(b), true, s, -INFTY, INFTY);
+        for (int k = 0; k < HISTORY_SIZE; k += 1) {
+            _history[k] /= 2;
+        }
+        if (_table != null) {
+            _table.newSearch();
+            _table.resetStatistics();
+        }
+        _timed = false;
+        _aborted = false;
+        _rootMove = Move.NO_MOVE;
+        _principalVariation = new ArrayList<>();
+        int score = 0;
+        for (_depth = 0; _depth < maxDepth; _depth += 1) {
+            int val = aspirationSearch(b, _depth + 1, score);
+            if (_aborted) {
+                break;
+            }
+            score = val;
+            _score = val;
+            _rootMove = Move.squares(_rootFoundMove);
+            _principalVariation = moves(_pv[0], _pvLength[0]);
+            _timed = true;
+            if (Math.abs(score) >= WILL_WIN_VALUE || pastHalfTime()) {
+                _depth += 1;
+                break;
+            }
+        }
+        _lastFoundMove = Move.mv(_rootMove);
         return _lastFoundMove;
     }
 
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
+    /** Return the moves whose codes are CODES[0 .. N-1]. */
+    private static List<Move> moves(int[] codes, int n) {
+        List<Move> result = new ArrayList<>(n);
+        for (int k = 0; k < n; k += 1) {
+            result.add(Move.mv(codes[k]));
+        }
+        return result;
+    }
+
+    @Override
+    List<Move> principalVariation() {
+        return _ponderThread == null ? _principalVariation : _expected;
+    }
+
+    /** Return the number of positions visited by the last search. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the average number of moves searched at each node that
+     *  was expanded in the last search. */
+    double branchingFactor() {
+        return _expanded == 0 ? 0 : (double) _searched / _expanded;
+    }
+
+    /** Return the average number of legal moves at each node that was
+     *  expanded in the last search. */
+    double legalBranchingFactor() {
+        return _expanded == 0 ? 0 : (double) _generated / _expanded;
+    }
+
+    /** Return the number of levels completed by the last search. */
+    int depth() {
+        return _depth;
+    }
+
+    /** Return the value, for the side to move, of the position searched
+     *  by the last completed iteration of the last search. */
+    int score() {
+        return _score;
+    }
+
+    /** Return the value of BOARD for the side to move, searched DEPTH
+     *  levels from the root, recording the best move in _rootFoundMove.
+     *  Unless DEPTH is 1 or GUESS, the value from the previous
+     *  iteration, is a win, searches first with a window of
+     *  ASPIRATION_WINDOW on each side of GUESS, widening it on the side
+     *  that fails until the value falls inside. */
+    private int aspirationSearch(Board board, int depth, int guess) {
+        if (depth == 1 || Math.abs(guess) >= WILL_WIN_VALUE) {
+            return rootSearch(board, depth, -INFTY, INFTY);
+        }
+        long delta = ASPIRATION_WINDOW;
+        int alpha = (int) Math.max(guess - delta, -INFTY),
+            beta = (int) Math.min(guess + delta, INFTY);
+        while (true) {
+            int val = rootSearch(board, depth, alpha, beta);
+            if (_aborted) {
+                return 0;
+            }
+            delta *= 2;
+            if (val <= alpha && alpha > -INFTY) {
+                alpha = (int) Math.max(guess - delta, -INFTY);
+            } else if (val >= beta && beta < INFTY) {
+                beta = (int) Math.min(guess + delta, INFTY);
+            } else {
+                return val;
+            }
+            if (SearchStats.ENABLED) {
+                _aspirationResearches += 1;
+            }
+        }
+    }
+
+    /** Return the value of BOARD for the side to move as for
+     *  search(BOARD, DEPTH, true, ALPHA, BETA), searching in parallel if
+     *  I have a pool. */
+    private int rootSearch(Board board, int depth, int alpha, int beta) {
+        if (_pool != null && depth > 1) {
+            return parallelSearch(board, depth, alpha, beta);
+        }
+        return search(board, depth, true, alpha, beta);
+    }
+
+    /** Return the value of BOARD as for search(BOARD, DEPTH, true, ALPHA,
+     *  BETA), but after searching the first move, search the rest in
+     *  parallel, each on its own copy of BOARD. */
+    private int parallelSearch(Board board, int depth, int alpha, int beta) {
+        int[] moves = moveBuffer(depth);
+        int[] scores = _scores[depth];
+        int n = board.legalMoves(board.turn(), moves);
+        scoreMoves(moves, scores, n, _rootMove);
+        for (int k = 0; k < n; k += 1) {
+            selectMove(moves, scores, k, n);
+        }
+        _pvLength[0] = 0;
+        int first = moves[0];
+        board.makeMove(first);
+        _ply = 1;
+        int val = -search(board, depth - 1, false, -beta, -alpha);
+        _ply = 0;
+        board.undo();
+        if (_aborted) {
+            return 0;
+        }
+        _rootFoundMove = first;
+        updatePrincipalVariation(first);
+        if (val >= beta) {
+            return val;
+        }
+        AtomicInteger bound = new AtomicInteger(Math.max(val, alpha));
+        List<RootTask> tasks = new ArrayList<>();
+        for (int k = 1; k < n; k += 1) {
+            RootTask task =
+                new RootTask(board, moves[k], depth, beta, bound);
+            tasks.add(task);
+            _pool.execute(task);
+        }
+        for (RootTask task : tasks) {
+            int response = task.join();
+            AI worker = task._worker;
+            _nodes += worker._nodes;
+            _tableCutoffs += worker._tableCutoffs;
+            _expanded += worker._expanded;
+            _generated += worker._generated;
+            _searched += worker._searched;
+            _quiescenceNodes += worker._quiescenceNodes;
+            _tablebaseHits += worker._tablebaseHits;
+            _cutoffs += worker._cutoffs;
+            _firstMoveCutoffs += worker._firstMoveCutoffs;
+            _researches += worker._researches;
+            if (worker._aborted) {
+                _aborted = true;
+            } else if (task._exact && response > val) {
+                val = response;
+                _rootFoundMove = task._move;
+                _pv[0][0] = task._move;
+                System.arraycopy(worker._pv[1], 1, _pv[0], 1,
+                                 worker._pvLength[1] - 1);
+                _pvLength[0] = worker._pvLength[1];
+            }
+        }
+        return _aborted ? 0 : val;
+    }
+
+    /** The search of one root move by a parallel search. */
+    private class RootTask extends RecursiveTask<Integer> {
+
+        /** A task that searches the position after the move with code
+         *  MOVE on BOARD for DEPTH - 1 levels, with BETA the upper bound
+         *  of the root's window, and records in BOUND the best value so
+         *  far at the root. */
+        RootTask(Board board, int move, int depth, int beta,
+                 AtomicInteger bound) {
+            _board = board;
+            _move = move;
+            _rootDepth = depth;
+            _beta = beta;
+            _bound = bound;
+            _worker = new AI(AI.this);
+            _worker._ply = 1;
+        }
+
+        @Override
+        protected Integer compute() {
+            int bound = _bound.get();
+            if (bound >= _beta) {
+                return bound;
+            }
+            Board board = new Board(_board);
+            board.makeMove(_move);
+            int response = -_worker.search(board, _rootDepth - 1, false,
+                                           -_beta, -bound);
+            _exact = response > bound;
+            _bound.accumulateAndGet(response, Math::max);
+            return response;
+        }
+
+        /** The root position, which is not modified. */
+        private final Board _board;
+        /** Code of the root move searched. */
+        private final int _move;
+        /** Depth of the root search. */
+        private final int _rootDepth;
+        /** Upper bound of the root's search window. */
+        private final int _beta;
+        /** Best value found at the root so far. */
+        private final AtomicInteger _bound;
+        /** The AI that does the search and holds its counts. */
+        private final AI _worker;
+        /** True iff the result is _move's value (or a lower bound on it
+         *  of at least _beta), rather than a bound showing it is no
+         *  better than a move already searched. */
+        private boolean _exact;
+    }
+
+    /** Log the principal variation of the last search, which took TIME
+     *  milliseconds, and report its statistics. */
+    private void reportSearch(long time) {
+        StringBuilder pv = new StringBuilder();
+        for (Move move : _principalVariation) {
+            pv.append(' ').append(move);
+        }
+        _controller.logComment("%s: principal variation%s",
+                               myPiece().toName(), pv);
+        _controller.reportStatistics(statistics(time));
+    }
+
+    /** Return the statistics of my last search, which took TIME
+     *  milliseconds.  The counts kept only for statistics are included
+     *  only if SearchStats.ENABLED. */
+    SearchStats statistics(long time) {
+        SearchStats stats = new SearchStats(myPiece())
+            .add("depth", _depth).add("ms", time).add("nodes", _nodes)
+            .add("nps", time == 0 ? 0 : 1000 * _nodes / time)
+            .add("score", _score);
+        if (!SearchStats.ENABLED) {
+            return stats;
+        }
+        stats.add("qnodes", _quiescenceNodes).add("expanded", _expanded)
+            .add("branching", branchingFactor())
+            .add("legal", legalBranchingFactor())
+            .add("cutoffs", _cutoffs)
+            .add("first.cutoffs", _firstMoveCutoffs)
+            .add("researches", _researches)
+            .add("aspiration.researches", _aspirationResearches);
+        if (_table != null) {
+            stats.add("tt.probes", _table.probes())
+                .add("tt.hits", _table.hits())
+                .add("tt.cutoffs", _tableCutoffs);
+        }
+        if (_tablebase != null) {
+            stats.add("tb.hits", _tablebaseHits);
+        }
+        return stats;
+    }
+
+    /** Return true iff the current search has run past its deadline or
+     *  been stopped.  The deadline is checked only every
+     *  TIME_CHECK_INTERVAL nodes, and the clock is not read during the
+     *  first iteration, which always completes unless stopped. */
+    private boolean outOfTime() {
+        if (!_aborted && (_nodes % TIME_CHECK_INTERVAL) == 0) {
+            long deadline = _deadline.get();
+            if (deadline == STOPPED
+                || (_timed && System.currentTimeMillis() >= deadline)) {
+                _aborted = true;
+            }
+        }
+        return _aborted;
+    }
+
+    /** Return true iff the current search has been stopped or has used
+     *  more than half of its time, so that another iteration would
+     *  probably not finish. */
+    private boolean pastHalfTime() {
+        long deadline = _deadline.get();
+        return deadline == STOPPED
+            || System.currentTimeMillis() > deadline - _budget / 2;
+    }
+
+    /** The move returned by the last search. */
     private Move _lastFoundMove;
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove,
-                         int sense, int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
-        }
-        int val;
-        if (sense == 1) {
-            val = -INFTY;
-            for (Move m: board.legalMoves(Piece.WHITE)) {
-                Board board2 = new Board(board);
-                if (board2.isLegal(m)) {
-                    board2.makeMove(m);
-                } else {
-                    continue;
-                }
-                int response = findMove(board2, depth - 1,
-                        false, -sense, alpha, beta);
-                if (response >= val) {
-                    if (saveMove) {
-                        _lastFoundMove = m;
-                    }
-                    val = response;
-                    alpha = Integer.max(alpha, val);
-                    if (val >= beta && Math.random() < RANDOM) {
+    /** Code of the move found by the last root search. */
+    private int _rootFoundMove;
+
+    /** Return the value of BOARD for the side to move, searched DEPTH
+     *  levels, recording the move found in _rootFoundMove iff ROOT.  The
+     *  value is exact if it lies strictly between ALPHA and BETA;
+     *  otherwise it is an upper bound (if <= ALPHA) or lower bound (if
+     *  >= BETA) on the exact value.  Searching at level 0 searches only
+     *  tactical moves (see quiesce).  The first move is
+     *  searched with the full window and the rest with a null window,
+     *  re-searching any that turn out better.  Each move is made and
+     *  undone in place, so BOARD is unchanged on return.  Records the
+     *  principal variation from BOARD in _pv[_ply].  If the search runs
+     *  out of time, returns 0 with _aborted set. */
+    private int search(Board board, int depth, boolean root,
+                       int alpha, int beta) {
+        _pvLength[_ply] = _ply;
+        if (depth == 0) {
+            _quiescenceBudget = QUIESCENCE_NODES;
+            return quiesce(board, 0, alpha, beta);
+        }
+        _nodes += 1;
+        if (outOfTime()) {
+            return 0;
+        }
+        if (board.winner() != null) {
+            return sideScore(board);
+        }
+        if (!root) {
+            int known = tablebaseScore(board);
+            if (known != NO_SCORE) {
+                return known;
+            }
+        }
+        int hashMove = Move.NO_MOVE;
+        if (_table != null) {
+            long entry = _table.probe(board.key());
+            if (entry != 0) {
+                hashMove = TranspositionTable.move(entry);
+                if (!root && TranspositionTable.depth(entry) >= depth) {
+                    int score = TranspositionTable.score(entry);
+                    switch (TranspositionTable.bound(entry)) {
+                    case TranspositionTable.LOWER:
+                        alpha = Integer.max(alpha, score);
+                        break;
+                    case TranspositionTable.UPPER:
+                        beta = Integer.min(beta, score);
+                        break;
+                    default:
+                        alpha = beta = score;
                         break;
                     }
+                    if (alpha >= beta) {
+                        if (SearchStats.ENABLED) {
+                            _tableCutoffs += 1;
+                        }
+                        return score;
+                    }
                 }
             }
-        } else {
-            val = INFTY;
-            for (Move m: board.legalMoves(Piece.BLACK)) {
-                Board board2 = new Board(board);
-                if (board2.isLegal(m)) {
-                    board2.makeMove(m);
-                } else {
-                    continue;
-                }
-                int response = findMove(board2, depth - 1,
-                        false, -sense, alpha, beta);
-                if (response <= val) {
-                    val = response;
-                    if (saveMove) {
-                        _lastFoundMove = m;
+        }
+        if (root && _rootMove != Move.NO_MOVE) {
+            hashMove = _rootMove;
+        }
+        int alpha0 = alpha;
+        int val = -INFTY;
+        int best = Move.NO_MOVE;
+        int[] moves = moveBuffer(depth);
+        int[] scores = _scores[depth];
+        int n = board.legalMoves(board.turn(), moves);
+        scoreMoves(moves, scores, n, hashMove);
+        if (SearchStats.ENABLED) {
+            _expanded += 1;
+            _generated += n;
+        }
+        for (int k = 0; k < n; k += 1) {
+            int m = selectMove(moves, scores, k, n);
+            if (SearchStats.ENABLED) {
+                _searched += 1;
+            }
+            board.makeMove(m);
+            _ply += 1;
+            int response;
+            if (k == 0) {
+                response = -search(board, depth - 1, false, -beta, -alpha);
+            } else {
+                response = -search(board, depth - 1, false,
+                                   -alpha - 1, -alpha);
+                if (response > alpha && response < beta && !_aborted) {
+                    if (SearchStats.ENABLED) {
+                        _researches += 1;
                     }
-                    beta = Integer.min(beta, val);
-                    if (val <= alpha || Math.random() < RANDOM) {
-                        break;
+                    response = -search(board, depth - 1, false,
+                                       -beta, -alpha);
+                }
+            }
+            _ply -= 1;
+            board.undo();
+            if (_aborted) {
+                return 0;
+            }
+            if (response > val) {
+                val = response;
+                best = m;
+                if (root) {
+                    _rootFoundMove = m;
+                }
+                if (val > alpha) {
+                    alpha = val;
+                    updatePrincipalVariation(m);
+                }
+                if (val >= beta) {
+                    if (SearchStats.ENABLED) {
+                        _cutoffs += 1;
+                        _firstMoveCutoffs += k == 0 ? 1 : 0;
                     }
+                    recordCutoff(m, depth);
+                    break;
                 }
             }
         }
+        if (_table != null) {
+            int bound;
+            if (val >= beta) {
+                bound = TranspositionTable.LOWER;
+            } else if (val <= alpha0) {
+                bound = TranspositionTable.UPPER;
+            } else {
+                bound = TranspositionTable.EXACT;
+            }
+            _table.store(board.key(), depth, bound, val, best);
+        }
         return val;
     }
-    /** Max Depth. Return. BOARD.*/
-    private static int maxDepth(Board board) {
-        return 1;
+
+    /** Return the value of BOARD for the side to move, QPLY moves beyond
+     *  the nominal depth of the search, considering only tactical moves:
+     *  those that capture, end the game, or move the king to a square
+     *  with a clear path to the edge.  The side to move may instead
+     *  accept the static value of BOARD ("stand pat"), and must once
+     *  QUIESCENCE_DEPTH moves or the QUIESCENCE_NODES nodes allowed
+     *  below the leaf where quiescence began are used up.  ALPHA and
+     *  BETA are as for search.  If the search runs out of time, returns
+     *  0 with _aborted set. */
+    private int quiesce(Board board, int qply, int alpha, int beta) {
+        _nodes += 1;
+        if (SearchStats.ENABLED) {
+            _quiescenceNodes += 1;
+        }
+        _quiescenceBudget -= 1;
+        if (outOfTime()) {
+            return 0;
+        }
+        int known = tablebaseScore(board);
+        if (known != NO_SCORE) {
+            return known;
+        }
+        int val = sideScore(board);
+        if (board.winner() != null || val >= beta || qply >= QUIESCENCE_DEPTH
+            || _quiescenceBudget <= 0) {
+            return val;
+        }
+        alpha = Integer.max(alpha, val);
+        Piece side = board.turn(), enemy = side.opponent();
+        int[] moves = quiescenceBuffer(qply);
+        int n = board.legalMoves(side, moves);
+        for (int k = 0; k < n; k += 1) {
+            int m = moves[k];
+            boolean king = (m & Move.KING_MOVE) != 0;
+            if (!king && (m & Move.CAPTURE) == 0) {
+                continue;
+            }
+            int enemies = board.pieceCount(enemy);
+            board.makeMove(m);
+            if (board.winner() == null && board.pieceCount(enemy) == enemies
+                && (!king || board.kingEscapes() == 0)) {
+                board.undo();
+                continue;
+            }
+            int response = -quiesce(board, qply + 1, -beta, -alpha);
+            board.undo();
+            if (_aborted) {
+                return 0;
+            }
+            if (response > val) {
+                val = response;
+                alpha = Integer.max(alpha, val);
+                if (val >= beta) {
+                    break;
+                }
+            }
+        }
+        return val;
+    }
+
+    /** Return the static value of BOARD for the side to move. */
+    private int sideScore(Board board) {
+        int score = staticScore(board);
+        return board.turn() == Piece.WHITE ? score : -score;
+    }
+
+    /** Record the move with code MOVE, followed by the principal
+     *  variation of the node after it, as the principal variation of the
+     *  node at the current ply. */
+    private void updatePrincipalVariation(int move) {
+        int length = _pvLength[_ply + 1];
+        _pv[_ply][_ply] = Move.squares(move);
+        System.arraycopy(_pv[_ply + 1], _ply + 1, _pv[_ply], _ply + 1,
+                         length - _ply - 1);
+        _pvLength[_ply] = length;
+    }
+
+    /** Set SCORES[k] to the ordering score of the move with code
+     *  MOVES[k] for 0 <= k < N, given that HASHMOVE (possibly NO_MOVE)
+     *  is the code of the best move recorded for the position: the hash
+     *  move first, then captures and king moves to the edge, then the
+     *  killer moves of the current ply, then the rest by their history
+     *  counts. */
+    private void scoreMoves(int[] moves, int[] scores, int n,
+                            int hashMove) {
+        int[] killers = _killers[Math.min(_ply, MAX_DEPTH)];
+        for (int k = 0; k < n; k += 1) {
+            int m = moves[k], code = Move.squares(m);
+            if (code == hashMove) {
+                scores[k] = HASH_SCORE;
+            } else if (isTactical(m)) {
+                scores[k] = TACTICAL_SCORE;
+            } else if (code == killers[0]) {
+                scores[k] = KILLER_SCORE;
+            } else if (code == killers[1]) {
+                scores[k] = KILLER_SCORE - 1;
+            } else {
+                scores[k] = _history[code];
+            }
+        }
+    }
+
+    /** Return true iff the move with code MOVE, as generated by
+     *  Board.legalMoves, is a capture or takes the king to the edge. */
+    private static boolean isTactical(int move) {
+        return (move & Move.CAPTURE) != 0
+            || ((move & Move.KING_MOVE) != 0
+                && Square.sq(Move.to(move)).isEdge());
+    }
+
+    /** Swap the highest-scoring of MOVES[K..N-1] into MOVES[K] (and its
+     *  score, from SCORES, into SCORES[K]), and return it. */
+    private static int selectMove(int[] moves, int[] scores, int k, int n) {
+        int best = k;
+        for (int j = k + 1; j < n; j += 1) {
+            if (scores[j] > scores[best]) {
+                best = j;
+            }
+        }
+        int move = moves[best];
+        int score = scores[best];
+        moves[best] = moves[k];
+        scores[best] = scores[k];
+        moves[k] = move;
+        scores[k] = score;
+        return move;
     }
-    /** Return a heuristic value for BOARD. */
+
+    /** Record that the move with code MOVE, searched DEPTH levels deep,
+     *  caused a cutoff: quiet moves become killers at the current ply
+     *  and gain history credit. */
+    private void recordCutoff(int move, int depth) {
+        if (isTactical(move)) {
+            return;
+        }
+        int[] killers = _killers[Math.min(_ply, MAX_DEPTH)];
+        int h = Move.squares(move);
+        if (killers[0] != h) {
+            killers[1] = killers[0];
+            killers[0] = h;
+        }
+        _history[h] += depth * depth;
+        if (_history[h] >= KILLER_SCORE - 1) {
+            for (int k = 0; k < HISTORY_SIZE; k += 1) {
+                _history[k] /= 2;
+            }
+        }
+    }
+
+    /** Return the buffer for the moves generated at a node searched to
+     *  DEPTH levels.  A search uses one buffer per level, allocated on
+     *  first use, so generating moves allocates nothing. */
+    private int[] moveBuffer(int depth) {
+        if (_moves[depth] == null) {
+            _moves[depth] = new int[Board.MAX_MOVES];
+            _scores[depth] = new int[Board.MAX_MOVES];
+        }
+        return _moves[depth];
+    }
+
+    /** Return the buffer for the moves generated at a quiescence node
+     *  QPLY moves below the nominal depth, allocated on first use. */
+    private int[] quiescenceBuffer(int qply) {
+        if (_quiescenceMoves[qply] == null) {
+            _quiescenceMoves[qply] = new int[Board.MAX_MOVES];
+        }
+        return _quiescenceMoves[qply];
+    }
+
+    /** The transposition table shared by the players created from the
+     *  same template, or null if there is none. */
+    private final TranspositionTable _table;
+    /** Pool used to search root moves in parallel, or null to search
+     *  them in sequence. */
+    private final ForkJoinPool _pool;
+    /** Static evaluation applied at the leaves of the search. */
+    private final Evaluator _evaluator;
+    /** Opening book consulted before searching, or null if none. */
+    private OpeningBook _book;
+    /** Tablebase probed during the search, or null if none. */
+    private Tablebase _tablebase;
+    /** Scratch space for probing _tablebase. */
+    private final int[] _tablebaseSquares = new int[Tablebase.PROBE_SQUARES];
+    /** Number of positions whose values were taken from _tablebase. */
+    private long _tablebaseHits;
+    /** True iff I search while my opponent chooses a move. */
+    private boolean _pondering;
+    /** Thread searching the position I expect to face next, or null if
+     *  I am not pondering. */
+    private Thread _ponderThread;
+    /** Key of the position being pondered. */
+    private long _ponderKey;
+    /** Move found by the last ponder search. */
+    private Move _ponderMove;
+    /** The principal variation of my last move, kept while a ponder
+     *  search replaces _principalVariation. */
+    private List<Move> _expected;
+    /** True iff the last move found came from _book. */
+    private boolean _bookMove;
+    /** Buffers of move codes for each remaining search depth (see
+     *  moveBuffer). */
+    private final int[][] _moves = new int[MAX_DEPTH + 1][];
+    /** Buffers of move codes for each quiescence ply (see
+     *  quiescenceBuffer). */
+    private final int[][] _quiescenceMoves = new int[QUIESCENCE_DEPTH][];
+    /** Ordering scores of the moves in the corresponding _moves
+     *  buffers. */
+    private final int[][] _scores = new int[MAX_DEPTH + 1][];
+    /** Codes of killer moves (quiet moves that caused cutoffs), most
+     *  recent first, for each ply from the root. */
+    private final int[][] _killers = new int[MAX_DEPTH + 1][KILLERS];
+    /** History counts: credit for cutoffs, indexed by move code without
+     *  flags. */
+    private final int[] _history = new int[HISTORY_SIZE];
+    /** Number of moves between the root and the current node. */
+    private int _ply;
+    /** Triangular table of principal variations: _pv[p][p] through
+     *  _pv[p][_pvLength[p] - 1] are the codes of the expected moves from
+     *  the node at ply p most recently searched. */
+    private final int[][] _pv = new int[MAX_DEPTH + 2][MAX_DEPTH + 2];
+    /** End indices of the principal variations in _pv. */
+    private final int[] _pvLength = new int[MAX_DEPTH + 2];
+    /** The principal variation found by the last completed iteration of
+     *  the current or last search. */
+    private List<Move> _principalVariation = new ArrayList<>();
+    /** Nodes whose moves were generated, moves generated at them, and
+     *  moves searched at them in the current search. */
+    private long _expanded, _generated, _searched;
+    /** Number of positions visited by the current search, including
+     *  quiescence nodes. */
+    private long _nodes;
+    /** Number of quiescence nodes visited by the current search. */
+    private long _quiescenceNodes;
+    /** Number of quiescence nodes still allowed below the current leaf
+     *  of the main search. */
+    private int _quiescenceBudget;
+    /** Number of nodes whose value was taken from _table. */
+    private long _tableCutoffs;
+    /** Number of nodes at which a move caused a beta cutoff, and the
+     *  number at which the first move searched did. */
+    private long _cutoffs, _firstMoveCutoffs;
+    /** Number of moves searched again with a full window after a null
+     *  window search showed them better than the best so far. */
+    private long _researches;
+    /** Number of root searches repeated because the score fell outside
+     *  the aspiration window. */
+    private long _aspirationResearches;
+    /** Code of the best move from the last completed iteration of the
+     *  current search, searched first in the next, or NO_MOVE before the
+     *  first. */
+    private int _rootMove;
+    /** Time (as from System.currentTimeMillis) at which the current
+     *  search must stop, or STOPPED.  Shared with helpers, and changed
+     *  by another thread to end pondering. */
+    private AtomicLong _deadline = new AtomicLong(Long.MAX_VALUE);
+    /** Time in milliseconds allowed to the current search. */
+    private volatile long _budget;
+    /** True once the current search may be stopped by its deadline. */
+    private boolean _timed;
+    /** True when the current iteration was stopped by its deadline. */
+    private boolean _aborted;
+    /** Score of the last completed iteration, for the side to move. */
+    private int _score;
+    /** Number of levels completed by the current search. */
+    private int _depth;
+    /** Return the value of BOARD for the side to move according to my
+     *  tablebase, or NO_SCORE if I have none, BOARD is not in it, the
+     *  game is over, or neither side can force a win. */
+    private int tablebaseScore(Board board) {
+        if (_tablebase == null || board.winner() != null) {
+            return NO_SCORE;
+        }
+        int value = _tablebase.probe(board, _tablebaseSquares);
+        if (Tablebase.isWin(value) || Tablebase.isLoss(value)) {
+            if (SearchStats.ENABLED) {
+                _tablebaseHits += 1;
+            }
+            return Tablebase.isWin(value)
+                ? TABLEBASE_WIN_VALUE - Tablebase.distance(value)
+                : -TABLEBASE_WIN_VALUE + Tablebase.distance(value);
+        }
+        return NO_SCORE;
+    }
+
+    /** Return a heuristic value for BOARD: a win, or the value given by
+     *  my evaluator. */
     private int staticScore(Board board) {
         Piece winner = board.winner();
         if (winner == Piece.BLACK) {
@@ -136,19 +1022,7 @@ class AI extends Player {
             return WINNING_VALUE;
         }
 
-        int wCount = 0;
-        int bCount = 0;
-
-        for (int i = 0; i < 9; i++) {
-            for (int j = 0; j < 9; j++) {
-                if (board.get(i, j) == Piece.BLACK) {
-                    bCount++;
-                } else if (board.get(i, j) == Piece.WHITE) {
-                    wCount++;
-                }
-            }
-        }
-        return wCount - bCount;
+        return _evaluator.evaluate(board);
     }
 
 }
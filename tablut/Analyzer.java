@@ -0,0 +1,137 @@
+package tablut;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static tablut.Utils.error;
+
+/** Analyzes a stream of positions, one per line in the format returned
+ *  by Board.encodedBoard, writing a line for each, in the same order:
+ *      POSITION MOVE SCORE DEPTH PV...
+ *  where MOVE is the best move found ("-" if the game is over), SCORE
+ *  its value for the side to move, DEPTH the number of levels
+ *  completed, and PV the principal variation.  A line that is not a
+ *  position produces "POSITION error: MESSAGE".  Blank lines and lines
+ *  that start with "#" are copied.
+ *
+ *  Positions are searched by a fixed pool of threads, each with its own
+ *  AI and transposition table, which it keeps from one position to the
+ *  next.  At most QUEUE_PER_THREAD positions per thread are read ahead
+ *  of the output, so that memory use does not grow with the input.
+ *  @author Sameer Varma
+ */
+class Analyzer {
+
+    /** Number of positions per thread that may be read but not yet
+     *  written. */
+    static final int QUEUE_PER_THREAD = 4;
+
+    /** An analyzer that searches each position with THREADS threads,
+     *  each using a transposition table of MEGABYTES megabytes (none if
+     *  0), EVALUATOR, and TABLEBASE (if not null), to a depth of at most
+     *  MAXDEPTH levels for at most MILLIS milliseconds. */
+    Analyzer(int threads, int megabytes, Evaluator evaluator,
+             Tablebase tablebase, int maxDepth, long millis) {
+        if (threads <= 0 || megabytes < 0 || maxDepth <= 0 || millis <= 0) {
+            throw error("bad analysis parameters");
+        }
+        _threads = threads;
+        _maxDepth = maxDepth;
+        _millis = millis;
+        _searchers = ThreadLocal.withInitial(() -> {
+            AI ai = new AI(megabytes, 1, evaluator);
+            ai.setTablebase(tablebase);
+            return ai;
+        });
+    }
+
+    /** Analyze the positions read from IN, writing the results to OUT.
+     *  Returns the number of positions analyzed. */
+    long run(BufferedReader in, PrintStream out) throws IOException {
+        int window = _threads * QUEUE_PER_THREAD;
+        ExecutorService workers =
+            new ThreadPoolExecutor(_threads, _threads, 0,
+                                   TimeUnit.MILLISECONDS,
+                                   new ArrayBlockingQueue<>(window));
+        Queue<Future<String>> pending = new ArrayDeque<>(window);
+        long count = 0;
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (pending.size() == window) {
+                    out.println(result(pending.remove()));
+                }
+                String position = line.trim();
+                pending.add(workers.submit(() -> analyze(position)));
+                count += 1;
+            }
+            while (!pending.isEmpty()) {
+                out.println(result(pending.remove()));
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return count;
+    }
+
+    /** Return the result line for POSITION. */
+    private String analyze(String position) {
+        if (position.isEmpty() || position.startsWith("#")) {
+            return position;
+        }
+        Board board = new Board();
+        try {
+            board.setPosition(position);
+        } catch (IllegalArgumentException excp) {
+            return String.format("%s error: %s", position,
+                                 excp.getMessage());
+        }
+        StringBuilder result = new StringBuilder(position);
+        Move move = null;
+        if (board.winner() == null) {
+            AI ai = _searchers.get();
+            move = ai.findMove(board, _maxDepth, _millis);
+            if (move != null) {
+                result.append(' ').append(move).append(' ')
+                    .append(ai.score()).append(' ').append(ai.depth());
+                List<Move> pv = ai.principalVariation();
+                for (Move m : pv) {
+                    result.append(' ').append(m);
+                }
+            }
+        }
+        if (move == null) {
+            result.append(" - 0 0");
+        }
+        return result.toString();
+    }
+
+    /** Return the result of the analysis RESULT, waiting for it if
+     *  needed. */
+    private static String result(Future<String> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Number of threads. */
+    private final int _threads;
+    /** Maximum depth of each search. */
+    private final int _maxDepth;
+    /** Time limit of each search. */
+    private final long _millis;
+    /** The searcher used by each thread. */
+    private final ThreadLocal<AI> _searchers;
+}
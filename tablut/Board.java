@@ -1,14 +1,18 @@
 package tablut;
 
 
-import java.util.Stack;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Formatter;
+import java.util.Random;
 
 
+import static tablut.Move.ROOK_MOVES;
 import static tablut.Piece.*;
 import static tablut.Square.*;
+import static tablut.Utils.error;
 
 /** The state of a Tablut Game.
  *  @author Sameer Varma
@@ -18,6 +22,16 @@ class Board {
     /** The number of squares on a side of the board. */
     static final int SIZE = 9;
 
+    /** An upper bound on the number of legal moves for one side in any
+     *  position: each empty square can be reached by at most one piece
+     *  from each of the four directions. */
+    static final int MAX_MOVES = 4 * NUM_SQUARES;
+
+    /** The size in bytes of a position written by writePosition: a bit
+     *  for the side to move and two bits per square. */
+    static final int POSITION_BYTES =
+        (1 + 2 * NUM_SQUARES + Byte.SIZE - 1) / Byte.SIZE;
+
     /** The throne (or castle) square and its four surrounding squares.. */
     static final Square THRONE = sq(4, 4),
         NTHRONE = sq(4, 5),
@@ -52,21 +66,24 @@ class Board {
 
     /** Copies MODEL into me. */
     void copy(Board model) {
-        _board = new Piece[9][9];
-        _actionStack = new Stack<>();
-        _boardStates = new ArrayList<>();
+        _lo = model._lo.clone();
+        _hi = model._hi.clone();
+        _king = model._king;
+        _threatLo = model._threatLo;
+        _threatHi = model._threatHi;
+        _kingTermsStale = model._kingTermsStale;
+        _kingAttackers = model._kingAttackers;
+        _kingMobility = model._kingMobility;
+        _kingEscapes = model._kingEscapes;
+        _undo = model._undo.clone();
+        _undoSize = model._undoSize;
+        _positions = new PositionCounts(model._positions);
+        _key = model._key;
         _turn = model._turn;
         _winner = model._winner;
         _lim = model._lim;
         _moveCount = model._moveCount;
         _repeated = model._repeated;
-        _boardStates.addAll(model._boardStates);
-        _actionStack.addAll(model._actionStack);
-        for (int i = 0; i < 9; i++) {
-            for (int j = 0; j < 9; j++) {
-                _board[i][j] = model._board[i][j];
-            }
-        }
     }
     /** Clears the board to the initial position. */
     void init() {
@@ -74,26 +91,49 @@ class Board {
         _lim = 0;
         setMoveLimit(_lim);
         _moveCount = 0;
-        _board = new Piece[9][9];
+        _lo = new long[PIECES.length];
+        _hi = new long[PIECES.length];
+        _king = -1;
+        _threatLo = _threatHi = 0;
+        _kingTermsStale = true;
         _turn = BLACK;
-        _boardStates = new ArrayList<String>();
-        _actionStack = new Stack<>();
+        _key = 0;
+        _positions = new PositionCounts();
+        _undo = new int[INITIAL_UNDO_SIZE];
+        _undoSize = 0;
         for (Square s : INITIAL_ATTACKERS) {
-            _board[s.row()][s.col()] = BLACK;
+            put(BLACK, s);
         }
         for (Square s : INITIAL_DEFENDERS) {
-            _board[s.row()][s.col()] = WHITE;
+            put(WHITE, s);
         }
-        _board[4][4] = KING;
-        for (int i = 0; i < _board.length; i++) {
-            for (int j = 0; j < _board.length; j++) {
-                if (_board[i][j] == null) {
-                    _board[i][j] = EMPTY;
-                }
+        put(KING, THRONE);
+        _positions.add(_key);
+
+    }
+
+    /** Clears the board, leaving no pieces, no record of earlier
+     *  positions, and TURN to move.  Pieces may then be placed with
+     *  put. */
+    void clear(Piece turn) {
+        for (int k = 1; k < PIECES.length; k += 1) {
+            while (_lo[k] != 0 || _hi[k] != 0) {
+                put(EMPTY, lowestBit(_lo[k], _hi[k]));
             }
         }
-        _boardStates.add(encodedBoard());
+        if (_turn != turn) {
+            _turn = turn;
+            _key ^= TURN_KEY;
+        }
+        _winner = null;
+        _repeated = false;
+        _moveCount = 0;
+        clearUndo();
+    }
 
+    /** Return the move limit, or 0 if there is none. */
+    int moveLimit() {
+        return _lim;
     }
 
     /** Set the move limit to LIM.  It is an error if 2*LIM <= moveCount().
@@ -121,7 +161,7 @@ class Board {
     /** Record current position and set winner() next mover if the current
      *  position is a repeat. */
     private void checkRepeated() {
-        if (_boardStates.contains(encodedBoard())) {
+        if (_positions.count(_key) > 0) {
             _repeated = true;
         }
         if (repeatedPosition()) {
@@ -135,16 +175,108 @@ class Board {
         return _moveCount;
     }
 
+    /** Return a 64-bit Zobrist hash of the current position, including
+     *  the side to move.  Equal positions have equal keys. */
+    long key() {
+        return _key;
+    }
+
     /** Return location of the king. */
     Square kingPosition() {
-        for (int i = 0; i < 9; i++) {
-            for (int j = 0; j < 9; j++) {
-                if (_board[i][j] == KING) {
-                    return Square.sq(j, i);
-                }
+        return _king < 0 ? null : sq(_king);
+    }
+
+    /** Return the number of PIECEs on the board. */
+    int pieceCount(Piece piece) {
+        return Long.bitCount(_lo[piece.ordinal()])
+            + Long.bitCount(_hi[piece.ordinal()]);
+    }
+
+    /** Store the indices of the squares holding PIECE in RESULT, in
+     *  increasing order, starting at RESULT[START].  Returns the number
+     *  of squares stored. */
+    int squares(Piece piece, int[] result, int start) {
+        int n = start;
+        for (long bits = _lo[piece.ordinal()]; bits != 0; bits &= bits - 1) {
+            result[n] = Long.numberOfTrailingZeros(bits);
+            n += 1;
+        }
+        for (long bits = _hi[piece.ordinal()]; bits != 0; bits &= bits - 1) {
+            result[n] = Long.numberOfTrailingZeros(bits) + Long.SIZE;
+            n += 1;
+        }
+        return n - start;
+    }
+
+    /** Return the number of SIDE's pieces, other than the king, that
+     *  lie between an enemy piece and an empty square in a row or
+     *  column.  Kept up to date as pieces move. */
+    int threatenedCount(Piece side) {
+        return Long.bitCount(_lo[side.ordinal()] & _threatLo)
+            + Long.bitCount(_hi[side.ordinal()] & _threatHi);
+    }
+
+    /** Return the number of black pieces and empty throne squares next
+     *  to the king, or 0 if there is no king. */
+    int kingAttackers() {
+        updateKingTerms();
+        return _kingAttackers;
+    }
+
+    /** Return the number of squares to which the king can move, or 0 if
+     *  there is no king. */
+    int kingMobility() {
+        updateKingTerms();
+        return _kingMobility;
+    }
+
+    /** Return the number of directions in which the king has a clear
+     *  path to the edge of the board, or 0 if there is no king. */
+    int kingEscapes() {
+        updateKingTerms();
+        return _kingEscapes;
+    }
+
+    /** Return the distance from the king to the nearest edge of the
+     *  board, or 0 if there is no king. */
+    int kingEdgeDistance() {
+        return _king < 0 ? 0 : EDGE_DISTANCE[_king];
+    }
+
+    /** Return the number of rook steps from the king to the nearest
+     *  corner of the board, or 0 if there is no king. */
+    int kingCornerDistance() {
+        return _king < 0 ? 0 : CORNER_DISTANCE[_king];
+    }
+
+    /** Recompute the king's attackers, mobility, and escapes if a change
+     *  to the king's square, row, or column has made them stale.  put
+     *  marks them stale, and the first query after that recomputes
+     *  them, so positions that are never evaluated cost nothing and
+     *  moves away from the king's lines cost nothing either. */
+    private void updateKingTerms() {
+        if (!_kingTermsStale) {
+            return;
+        }
+        _kingTermsStale = false;
+        _kingAttackers = _kingMobility = _kingEscapes = 0;
+        if (_king < 0) {
+            return;
+        }
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        for (int d = 0; d < 4; d += 1) {
+            int n = NEIGHBOR[_king][d];
+            if (n >= 0 && (isSet(BLACK, n)
+                           || (n == THRONE.index() && get(n) == EMPTY))) {
+                _kingAttackers += 1;
+            }
+            _kingMobility += reach(_king, d, occLo, occHi);
+            long lo = RAY_LO[_king][d], hi = RAY_HI[_king][d];
+            if ((lo != 0 || hi != 0) && (lo & occLo) == 0
+                && (hi & occHi) == 0) {
+                _kingEscapes += 1;
             }
         }
-        return null;
     }
 
     /** Return the contents the square at S. */
@@ -155,7 +287,19 @@ class Board {
     /** Return the contents of the square at (COL, ROW), where
      *  0 <= COL, ROW <= 9. */
     final Piece get(int col, int row) {
-        return _board[row][col];
+        return get(row * SIZE + col);
+    }
+
+    /** Return the contents of the square with index INDEX. */
+    private Piece get(int index) {
+        if (isSet(WHITE, index)) {
+            return WHITE;
+        } else if (isSet(BLACK, index)) {
+            return BLACK;
+        } else if (isSet(KING, index)) {
+            return KING;
+        }
+        return EMPTY;
     }
 
     /** Return the contents of the square at COL ROW. */
@@ -165,11 +309,105 @@ class Board {
 
     /** Set square S to P. */
     final void put(Piece p, Square s) {
-        _board[s.row()][s.col()] = p;
+        put(p, s.index());
+    }
+
+    /** Set the square with index INDEX to P, keeping the cached king
+     *  position and threat masks up to date and marking the king's
+     *  terms stale if they may have changed. */
+    private void put(Piece p, int index) {
+        Piece old = get(index);
+        if (old == p) {
+            return;
+        }
+        _key ^= ZOBRIST[old.ordinal()][index] ^ ZOBRIST[p.ordinal()][index];
+        for (int k = 1; k < PIECES.length; k += 1) {
+            _lo[k] &= ~bitLo(index);
+            _hi[k] &= ~bitHi(index);
+        }
+        if (p != EMPTY) {
+            _lo[p.ordinal()] |= bitLo(index);
+            _hi[p.ordinal()] |= bitHi(index);
+        }
+        if (p == KING || old == KING) {
+            _king = lowestBit(_lo[KING.ordinal()], _hi[KING.ordinal()]);
+            _kingTermsStale = true;
+        } else if (_king >= 0 && (index / SIZE == _king / SIZE
+                                  || index % SIZE == _king % SIZE)) {
+            _kingTermsStale = true;
+        }
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        updateThreat(index, occLo, occHi);
+        for (int d = 0; d < 4; d += 1) {
+            int n = NEIGHBOR[index][d];
+            if (n >= 0 && contains(occLo, occHi, n)) {
+                updateThreat(n, occLo, occHi);
+            }
+        }
+    }
+
+    /** Record whether the piece (if any) on the square with index INDEX
+     *  is threatened in _threatLo and _threatHi, where OCCLO and OCCHI
+     *  are the occupied squares. */
+    private void updateThreat(int index, long occLo, long occHi) {
+        if (isThreatened(index, occLo, occHi)) {
+            _threatLo |= bitLo(index);
+            _threatHi |= bitHi(index);
+        } else {
+            _threatLo &= ~bitLo(index);
+            _threatHi &= ~bitHi(index);
+        }
+    }
+
+    /** Return true iff the square with index INDEX holds a piece other
+     *  than the king that lies between an enemy piece and an empty
+     *  square along a row or column, so that an enemy moving to the
+     *  empty square might capture it.  OCCLO and OCCHI are the occupied
+     *  squares. */
+    private boolean isThreatened(int index, long occLo, long occHi) {
+        long enemyLo, enemyHi;
+        if (isSet(WHITE, index)) {
+            enemyLo = _lo[BLACK.ordinal()];
+            enemyHi = _hi[BLACK.ordinal()];
+        } else if (isSet(BLACK, index)) {
+            enemyLo = _lo[WHITE.ordinal()] | _lo[KING.ordinal()];
+            enemyHi = _hi[WHITE.ordinal()] | _hi[KING.ordinal()];
+        } else {
+            return false;
+        }
+        for (int d = 0; d < 2; d += 1) {
+            int a = NEIGHBOR[index][d], b = NEIGHBOR[index][d + 2];
+            if (a < 0 || b < 0) {
+                continue;
+            }
+            if ((!contains(occLo, occHi, a) && contains(enemyLo, enemyHi, b))
+                || (!contains(occLo, occHi, b)
+                    && contains(enemyLo, enemyHi, a))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /** Set square S to P and record for undoing. */
     final void revPut(Piece p, Square s) {
+        revPut(p, s.index());
+    }
+
+    /** Set the square with index INDEX to P and record its previous
+     *  contents for undoing. */
+    private void revPut(Piece p, int index) {
+        pushUndo(index << 2 | get(index).ordinal());
+        put(p, index);
+    }
+
+    /** Push ENTRY onto the undo buffer, growing it if necessary. */
+    private void pushUndo(int entry) {
+        if (_undoSize == _undo.length) {
+            _undo = Arrays.copyOf(_undo, 2 * _undo.length);
+        }
+        _undo[_undoSize] = entry;
+        _undoSize += 1;
     }
 
     /** Set square COL ROW to P. */
@@ -181,23 +419,12 @@ class Board {
      *  board.  For this to be true, FROM-TO must be a rook move and the
      *  squares along it, other than FROM, must be empty. */
     boolean isUnblockedMove(Square from, Square to) {
-        int index = from.index();
-        int dir = from.direction(to);
         if (!from.isRookMove(to)) {
             return false;
         }
-        if (get(to) != EMPTY) {
-            return false;
-        }
-        for (Square  s : ROOK_SQUARES[index][dir]) {
-            if (get(s) != EMPTY) {
-                return false;
-            }
-            if (s == to) {
-                return true;
-            }
-        }
-        return true;
+        int k = from.index() * NUM_SQUARES + to.index();
+        return ((PATH_LO[k] & occupiedLo()) | (PATH_HI[k] & occupiedHi()))
+            == 0;
     }
 
     /** Return true iff FROM is a valid starting square for a move. */
@@ -234,7 +461,9 @@ class Board {
     /** Move FROM-TO, assuming this is a legal move. */
     void makeMove(Square from, Square to) {
         assert isLegal(from, to);
-        ArrayList<Action> arr = new ArrayList<>();
+        int start = _undoSize;
+        int header = (_winner == null ? 0 : _winner.ordinal())
+            | (_repeated ? REPEATED_FLAG : 0);
         if (_moveCount == (_lim * 2) - 1) {
             if (_turn == WHITE) {
                 _winner = WHITE;
@@ -249,57 +478,46 @@ class Board {
                 _winner = WHITE;
             }
         }
-        if (_board[from.row()][from.col()] == KING) {
-            arr.add(new Action(from, KING));
-            arr.add(new Action(to, EMPTY));
-            _board[from.row()][from.col()] = EMPTY;
-            _board[to.row()][to.col()] = KING;
-        } else {
-            arr.add(new Action(from, _turn));
-            arr.add(new Action(to, EMPTY));
-            _board[from.row()][from.col()] = EMPTY;
-            _board[to.row()][to.col()] = _turn;
-        }
+        Piece moved = get(from) == KING ? KING : _turn;
+        revPut(EMPTY, from.index());
+        revPut(moved, to.index());
         if (_turn == WHITE) {
             _turn = BLACK;
         } else {
             _turn = WHITE;
         }
+        _key ^= TURN_KEY;
         _moveCount++;
-        cap(to, arr);
+        checkCap(to.index());
         checkRepeated();
-        if (kingPosition() == null) {
+        if (_king < 0) {
             _winner = BLACK;
-        } else if (kingPosition().isEdge()) {
+        } else if (sq(_king).isEdge()) {
             _winner = WHITE;
         }
-        _boardStates.add(encodedBoard());
+        _positions.add(_key);
+        pushUndo((_undoSize - start) << UNDO_COUNT_SHIFT | header);
     }
     /** Move according to MOVE, assuming it is a legal move. */
     void makeMove(Move move) {
         makeMove(move.from(), move.to());
     }
-    /** determines if a capture is possible. K. Return. */
-    private boolean kingCap(Square k) {
-        Square s1 = Square.sq(k.col() + 1, k.row());
-        if (!(s1 != null  && (get(s1) == BLACK
-                || (get(s1) == EMPTY && s1 == THRONE)))) {
-            return false;
-        }
-        Square s2 = Square.sq(k.col() - 1, k.row());
-        if (!(s2 != null && (get(s2) == BLACK
-                || (get(s2) == EMPTY && s2 == THRONE)))) {
-            return false;
-        }
-        Square s3 = Square.sq(k.col(), k.row() - 1);
-        if (!(s3 != null && (get(s3) == BLACK
-                || (get(s3) == EMPTY && s3 == THRONE)))) {
-            return false;
-        }
-        Square s4 = Square.sq(k.col(), k.row() + 1);
-        if (!(s4 != null && (get(s4) == BLACK
-                || (get(s4) == EMPTY && s4 == THRONE)))) {
-            return false;
+
+    /** Move according to the move with code CODE (see Move.code),
+     *  assuming it is a legal move. */
+    void makeMove(int code) {
+        makeMove(sq(Move.from(code)), sq(Move.to(code)));
+    }
+    /** Return true iff the king on the square with index K is
+     *  surrounded on all four sides by black pieces or the empty
+     *  throne. */
+    private boolean kingCap(int k) {
+        for (int d = 0; d < 4; d += 1) {
+            int n = NEIGHBOR[k][d];
+            if (n < 0 || !(get(n) == BLACK
+                           || (get(n) == EMPTY && n == THRONE.index()))) {
+                return false;
+            }
         }
         return true;
     }
@@ -311,122 +529,107 @@ class Board {
         }
         return false;
     }
-    /** determines capturing ability. TO. A. RETURN */
-    private void cap(Square to, ArrayList<Action> a) {
-        Piece capturer = EMPTY;
-        boolean reset = false;
-        boolean reset2 = false;
-        boolean reset3 = false;
-        boolean captured = false;
-        boolean blackWin = false;
-        if (_board[4][4] == EMPTY) {
-            _board[4][4] = get(to);
-            reset = true;
-        } else if (_board[4][4] == KING) {
-            _board[4][4] = WHITE;
-            if (get(to) != KING) {
-                reset3 = true;
+    /** Make the captures caused by the move of the piece now on the
+     *  square with index TO.  Only TO's four neighbours can be captured:
+     *  an enemy neighbour is captured when the square beyond it holds a
+     *  piece of the mover's side or is a hostile throne (see
+     *  hostileThrone).  The king on or next to the throne is captured
+     *  only when surrounded on all four sides. */
+    private void checkCap(int to) {
+        Piece mover = get(to);
+        Piece capturer = mover.side();
+        for (int d = 0; d < 4; d += 1) {
+            int btw = NEIGHBOR[to][d], s2 = TWO_AWAY[to][d];
+            if (s2 < 0) {
+                continue;
             }
-            if (_turn == WHITE) {
-                int count = 0;
-                if (get(NTHRONE) == BLACK) {
-                    count++;
-                }
-                if (get(STHRONE) == BLACK) {
-                    count++;
-                }
-                if (get(ETHRONE) == BLACK) {
-                    count++;
-                }
-                if (get(WTHRONE) == BLACK) {
-                    count++;
-                }
-                if (count == 3) {
-                    _board[4][4] = BLACK;
-                    reset2 = true;
-                }
-                if (count == 4) {
-                    blackWin = true;
-                }
+            Piece victim = get(btw);
+            if (victim.side() != _turn) {
+                continue;
+            }
+            if (victim == KING && onThrones(sq(btw)) && !kingCap(btw)) {
+                continue;
+            }
+            if (get(s2).side() == capturer
+                || (s2 == THRONE.index() && hostileThrone(mover))) {
+                capture(btw);
             }
         }
-        capturer = capturer(capturer, to);
-        captured = checkCap(to, false, capturer, a);
-        if (!captured) {
-            _actionStack.push(a);
+        if (capturer == BLACK && _king == THRONE.index()
+            && kingCap(_king)) {
+            capture(_king);
         }
-        if (blackWin) {
-            _winner = BLACK;
-            return;
+    }
+
+    /** Return true iff the throne counts as a piece of MOVER's side
+     *  when deciding captures: when it is empty and MOVER is not the
+     *  king, or when MOVER is black and it holds the king with black
+     *  pieces on three of its four sides. */
+    private boolean hostileThrone(Piece mover) {
+        Piece throne = get(THRONE);
+        if (throne == EMPTY) {
+            return mover != KING;
         }
-        if (reset) {
-            _board[4][4] = EMPTY;
-        }
-        if (reset3) {
-            _board[4][4] = KING;
-        }
-        if (reset2) {
-            _board[4][4] = KING;
-        }
-    }
-    /** TO. A. CAPTURED. CAPTURER. RETURN .*/
-    private Piece capturer(Piece capturer, Square to) {
-        if (get(to) == KING) {
-            capturer = WHITE;
-        } else if (_turn == WHITE) {
-            capturer = BLACK;
-        } else if (_turn == BLACK) {
-            capturer = WHITE;
-        }
-        return capturer;
-    }
-    /** TO. A. CAPTURED. CAPTURER. RETURN .*/
-    private boolean checkCap(Square to, boolean captured,
-                             Piece capturer, ArrayList<Action> a) {
-        for (int i = 0; i < 9; i++) {
-            for (int j = 0; j < 9; j++) {
-                Square s = Square.sq(j, i);
-                if (s.isRookMove(to)) {
-                    int dir = to.direction(s);
-                    if (to.adjacent(s) && (get(s) == _turn)
-                            || (_turn == WHITE && get(j, i) == KING)) {
-                        Square s2 = to.rookMove(dir, 2);
-                        if (s2 != null && get(to.between(s2)) == KING
-                                && onThrones(to.between(s2))
-                                && !kingCap(to.between(s2))) {
-                            continue;
-                        } else if (s2 != null && (get(s2) == capturer
-                                || (get(to) == WHITE
-                                && get(s2) == KING))) {
-                            if (get(to.between(s2)) != get(to)
-                                    && get(to) != EMPTY) {
-                                captured = true;
-                                capture(to, s2, a);
-                            }
-                        }
-                    }
-                }
+        if (throne != KING || mover != BLACK) {
+            return false;
+        }
+        int count = 0;
+        for (int d = 0; d < 4; d += 1) {
+            if (isSet(BLACK, NEIGHBOR[THRONE.index()][d])) {
+                count += 1;
+            }
+        }
+        return count == 3;
+    }
+
+    /** Return true iff MOVE, by the side to move, appears to capture a
+     *  piece: it lands next to an enemy piece other than the king that
+     *  has one of the mover's pieces or the empty throne beyond it, or
+     *  it lands next to the king.  This ignores the special rules near
+     *  the throne and is meant for selecting and ordering moves, not for
+     *  deciding captures. */
+    boolean isCapture(Move move) {
+        int from = move.from().index();
+        return isCapture(from, move.to().index(), get(from).side());
+    }
+
+    /** Return true iff a move by SIDE from the square with index FROM
+     *  to the one with index TO appears to capture, as for
+     *  isCapture(Move). */
+    private boolean isCapture(int from, int to, Piece side) {
+        Piece enemy = side.opponent();
+        for (int d = 0; d < 4; d += 1) {
+            int btw = NEIGHBOR[to][d], s2 = TWO_AWAY[to][d];
+            if (btw >= 0 && btw == _king && side == BLACK) {
+                return true;
+            }
+            if (s2 < 0 || s2 == from || get(btw) != enemy) {
+                continue;
+            }
+            Piece beyond = get(s2);
+            if (beyond.side() == side
+                || (beyond == EMPTY && s2 == THRONE.index())) {
+                return true;
             }
         }
-        return captured;
+        return false;
     }
 
-    /** Capture the piece between SQ0 and SQ2, assuming a piece just moved to
-     *  SQ0 and the necessary conditions are satisfied. A. SQO. SQ2. */
-    private void capture(Square sq0, Square sq2, ArrayList<Action> a) {
-        Square btw = sq0.between(sq2);
-        a.add(new Action(btw, get(btw)));
-        _actionStack.push(a);
-        _board[btw.row()][btw.col()] = EMPTY;
+    /** Capture the piece on the square with index BTW, assuming a piece
+     *  just moved next to it and the necessary conditions are
+     *  satisfied. */
+    private void capture(int btw) {
+        revPut(EMPTY, btw);
         if (get(btw) == KING) {
             _winner = BLACK;
         }
 
     }
 
-    /** Undo one move.  Has no effect on the initial board. */
+    /** Undo one move, restoring the pieces, turn, and win status from
+     *  before it.  Has no effect on the initial board. */
     void undo() {
-        if (_moveCount > 0) {
+        if (_moveCount > 0 && _undoSize > 0) {
             undoPosition();
             _moveCount--;
         }
@@ -435,53 +638,168 @@ class Board {
     /** Remove record of current position in the set of positions encountered,
      *  unless it is a repeated position or we are at the first move. */
     private void undoPosition() {
-        ArrayList<Action> undo = _actionStack.pop();
-        for (Action a : undo) {
-            put(a.getPiece(), a.getSquare());
+        _positions.remove(_key);
+        _undoSize -= 1;
+        int header = _undo[_undoSize];
+        for (int n = header >>> UNDO_COUNT_SHIFT; n > 0; n -= 1) {
+            _undoSize -= 1;
+            int change = _undo[_undoSize];
+            put(PIECES[change & 3], change >>> 2);
         }
-        _boardStates.remove(_boardStates.size() - 1);
-        _repeated = false;
+        int winner = header & 3;
+        _winner = winner == 0 ? null : PIECES[winner];
+        _repeated = (header & REPEATED_FLAG) != 0;
+        _turn = _turn.opponent();
+        _key ^= TURN_KEY;
     }
 
     /** Clear the undo stack and board-position counts. Does not modify the
      *  current position or win status. */
     void clearUndo() {
-        _boardStates.clear();
-
+        _positions.clear();
+        _undoSize = 0;
     }
 
     /** Return a new mutable list of all legal moves on the current board for
      *  SIDE (ignoring whose turn it is at the moment). */
     List<Move> legalMoves(Piece side) {
-        ArrayList<Move> moveList = new ArrayList<>();
-        for (int i = 0; i < 9; i++) {
-            for (int j = 0; j < 9; j++) {
-                if (get(j, i) == side
-                        || (get(j, i) == KING && side == WHITE)) {
-                    Square from = Square.sq(j, i);
-                    for (int k = 0; k < 9; k++) {
-                        for (int m = 0; m < 9; m++) {
-                            Square to = Square.sq(m, k);
-                            if (from.isRookMove(to)) {
-                                if (isLegalMoves(from, to)) {
-                                    Move move = Move.mv(from, to);
-                                    moveList.add(move);
-                                }
-                            }
-                        }
-                    }
+        Move[] moves = new Move[MAX_MOVES];
+        int n = legalMoves(side, moves);
+        return new ArrayList<>(Arrays.asList(moves).subList(0, n));
+    }
+
+    /** Store all legal moves on the current board for SIDE (ignoring whose
+     *  turn it is at the moment) in MOVES, starting at index 0, and
+     *  return their number.  MOVES must have room for MAX_MOVES moves.
+     *  Allocates nothing. */
+    int legalMoves(Piece side, Move[] moves) {
+        long lo = _lo[side.ordinal()], hi = _hi[side.ordinal()];
+        if (side == WHITE) {
+            lo |= _lo[KING.ordinal()];
+            hi |= _hi[KING.ordinal()];
+        }
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        int n = 0;
+        for (; lo != 0; lo &= lo - 1) {
+            n = addMoves(Long.numberOfTrailingZeros(lo), occLo, occHi,
+                         moves, n);
+        }
+        for (; hi != 0; hi &= hi - 1) {
+            n = addMoves(Long.numberOfTrailingZeros(hi) + Long.SIZE,
+                         occLo, occHi, moves, n);
+        }
+        return n;
+    }
+
+    /** Store the codes (see Move.code) of all legal moves on the current
+     *  board for SIDE (ignoring whose turn it is at the moment) in
+     *  MOVES, starting at index 0, and return their number.  Codes of
+     *  moves of the king have the flag Move.KING_MOVE, and those of
+     *  moves that appear to capture (see isCapture) have Move.CAPTURE.
+     *  MOVES must have room for MAX_MOVES codes.  Allocates nothing. */
+    int legalMoves(Piece side, int[] moves) {
+        long lo = _lo[side.ordinal()], hi = _hi[side.ordinal()];
+        if (side == WHITE) {
+            lo |= _lo[KING.ordinal()];
+            hi |= _hi[KING.ordinal()];
+        }
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        int n = 0;
+        for (; lo != 0; lo &= lo - 1) {
+            n = addMoves(Long.numberOfTrailingZeros(lo), side, occLo, occHi,
+                         moves, n);
+        }
+        for (; hi != 0; hi &= hi - 1) {
+            n = addMoves(Long.numberOfTrailingZeros(hi) + Long.SIZE, side,
+                         occLo, occHi, moves, n);
+        }
+        return n;
+    }
+
+    /** Store in MOVES, starting at index N, the codes of all moves by
+     *  SIDE from the square with index FROM that are not blocked by the
+     *  occupied squares OCCLO, OCCHI, with their flags.  Return the
+     *  index after the last code stored. */
+    private int addMoves(int from, Piece side, long occLo, long occHi,
+                         int[] moves, int n) {
+        int flags = from == _king ? Move.KING_MOVE : 0;
+        for (int d = 0; d < 4; d += 1) {
+            int k = reach(from, d, occLo, occHi);
+            int[] codes = RAY_CODES[from][d];
+            for (int j = 0; j < k; j += 1) {
+                int code = codes[j] | flags;
+                if (isCapture(from, Move.to(code), side)) {
+                    code |= Move.CAPTURE;
                 }
+                moves[n] = code;
+                n += 1;
             }
         }
-        return moveList;
+        return n;
     }
 
-    /** Return true iff SIDE has a legal move. */
+    /** Store in MOVES, starting at index N, all moves from the square with
+     *  index FROM that are not blocked by the occupied squares OCCLO,
+     *  OCCHI.  Return the index after the last move stored. */
+    private static int addMoves(int from, long occLo, long occHi,
+                                Move[] moves, int n) {
+        for (int d = 0; d < 4; d += 1) {
+            int k = reach(from, d, occLo, occHi);
+            System.arraycopy(RAY_MOVES[from][d], 0, moves, n, k);
+            n += k;
+        }
+        return n;
+    }
+
+    /** Return the number of empty squares in direction DIR from the square
+     *  with index FROM before the first square occupied in OCCLO, OCCHI or
+     *  the edge of the board. */
+    private static int reach(int from, int dir, long occLo, long occHi) {
+        long lo = RAY_LO[from][dir] & occLo, hi = RAY_HI[from][dir] & occHi;
+        int blocker;
+        if (STEP[dir] > 0) {
+            blocker = lowestBit(lo, hi);
+        } else {
+            blocker = highestBit(lo, hi);
+        }
+        if (blocker < 0) {
+            return RAY_MOVES[from][dir].length;
+        }
+        return Math.abs(blocker - from) / Math.abs(STEP[dir]) - 1;
+    }
+
+    /** Return true iff SIDE has a legal move.  Stops at the first piece
+     *  found that can move. */
     boolean hasMove(Piece side) {
-        if (legalMoves(side).isEmpty()) {
-            return false;
+        long lo = _lo[side.ordinal()], hi = _hi[side.ordinal()];
+        if (side == WHITE) {
+            lo |= _lo[KING.ordinal()];
+            hi |= _hi[KING.ordinal()];
         }
-        return true;
+        long occLo = occupiedLo(), occHi = occupiedHi();
+        for (; lo != 0; lo &= lo - 1) {
+            if (canMove(Long.numberOfTrailingZeros(lo), occLo, occHi)) {
+                return true;
+            }
+        }
+        for (; hi != 0; hi &= hi - 1) {
+            if (canMove(Long.numberOfTrailingZeros(hi) + Long.SIZE,
+                        occLo, occHi)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return true iff the piece on the square with index FROM has at least
+     *  one move not blocked by the occupied squares OCCLO, OCCHI. */
+    private static boolean canMove(int from, long occLo, long occHi) {
+        for (int d = 0; d < 4; d += 1) {
+            if (reach(from, d, occLo, occHi) > 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -514,7 +832,7 @@ class Board {
         }
         return out.toString();
     }
-    /** Return the contents of _board in the order of SQUARE_LIST as a sequence
+    /** Return the contents of the board in the order of SQUARE_LIST as a sequence
      *  of characters: the toString values of the current turn and Pieces. */
     String encodedBoard() {
         char[] result = new char[Square.SQUARE_LIST.size() + 1];
@@ -525,6 +843,95 @@ class Board {
         return new String(result);
     }
 
+    /** Set me to the position ENCODED, in the format returned by
+     *  encodedBoard, with no record of earlier positions.  The winner is
+     *  BLACK if there is no king and WHITE if the king is on an edge. */
+    void setPosition(String encoded) {
+        if (encoded.length() != NUM_SQUARES + 1) {
+            throw error("bad position: %s", encoded);
+        }
+        Piece turn = symbolPiece(encoded.charAt(0));
+        if (turn != WHITE && turn != BLACK) {
+            throw error("bad side to move: %s", encoded);
+        }
+        clear(turn);
+        for (int k = 0; k < NUM_SQUARES; k += 1) {
+            Piece piece = symbolPiece(encoded.charAt(k + 1));
+            if (piece == null) {
+                throw error("bad position: %s", encoded);
+            } else if (piece == KING && _king >= 0) {
+                throw error("more than one king: %s", encoded);
+            } else if (piece != EMPTY) {
+                put(piece, k);
+            }
+        }
+        setPositionWinner();
+    }
+
+    /** Write the current position to BUFFER in the packed format:
+     *  POSITION_BYTES bytes holding, from the most significant bit of the
+     *  first byte on, a bit that is 1 iff BLACK is to move, followed by
+     *  the ordinal of the piece on each square (two bits each) in index
+     *  order, and then zero bits. */
+    void writePosition(ByteBuffer buffer) {
+        int bits = _turn == BLACK ? 1 : 0;
+        int n = 1;
+        for (int k = 0; k < NUM_SQUARES; k += 1) {
+            bits = bits << 2 | get(k).ordinal();
+            n += 2;
+            if (n >= Byte.SIZE) {
+                n -= Byte.SIZE;
+                buffer.put((byte) (bits >>> n));
+            }
+        }
+        buffer.put((byte) (bits << (Byte.SIZE - n)));
+    }
+
+    /** Set me to the position read from BUFFER in the format written by
+     *  writePosition, as for setPosition. */
+    void readPosition(ByteBuffer buffer) {
+        int bits = buffer.get() & 0xff;
+        int n = Byte.SIZE - 1;
+        clear((bits >>> n & 1) == 1 ? BLACK : WHITE);
+        for (int k = 0; k < NUM_SQUARES; k += 1) {
+            if (n < 2) {
+                bits = bits << Byte.SIZE | buffer.get() & 0xff;
+                n += Byte.SIZE;
+            }
+            n -= 2;
+            Piece piece = PIECES[bits >>> n & 3];
+            if (piece == KING && _king >= 0) {
+                throw error("more than one king");
+            } else if (piece != EMPTY) {
+                put(piece, k);
+            }
+        }
+        setPositionWinner();
+    }
+
+    /** Finish setting up a position placed on a clear board: record it,
+     *  and make the winner BLACK if there is no king and WHITE if the
+     *  king is on an edge. */
+    private void setPositionWinner() {
+        _positions.add(_key);
+        if (_king < 0) {
+            _winner = BLACK;
+        } else if (sq(_king).isEdge()) {
+            _winner = WHITE;
+        }
+    }
+
+    /** Return the Piece whose symbol is SYMBOL, or null if there is
+     *  none. */
+    private static Piece symbolPiece(char symbol) {
+        for (Piece piece : PIECES) {
+            if (piece.toString().charAt(0) == symbol) {
+                return piece;
+            }
+        }
+        return null;
+    }
+
     /** Piece whose turn it is (WHITE or BLACK). */
     private Piece _turn;
     /** Cached value of winner on this board, or null if it has not been
@@ -534,13 +941,196 @@ class Board {
     private int _moveCount;
     /** True when current board is a repeated position (ending the game). */
     private boolean _repeated;
-    /** True when current board is a repeated position (ending the game). */
+    /** Move limit. */
     private int _lim;
-    /** move limit. */
-    private Piece[][] _board;
-    /** 2d array of pieces. */
-    private ArrayList<String> _boardStates;
-    /** list of encoded boards. */
-    private Stack<ArrayList<Action>> _actionStack;
+    /** Counts of the keys of the positions reached since the initial
+     *  position (or the last clearUndo), including the current one. */
+    private PositionCounts _positions;
+    /** Zobrist key of the current position and side to move. */
+    private long _key;
+    /** Undo buffer.  Each move pushes one entry per square it changed,
+     *  (index << 2 | ordinal of the previous Piece), followed by a header
+     *  holding the number of those entries (shifted by UNDO_COUNT_SHIFT),
+     *  REPEATED_FLAG if the position was already repeated, and the
+     *  ordinal of the previous winner (0 if none). */
+    private int[] _undo;
+    /** Number of entries in use in _undo. */
+    private int _undoSize;
+    /** Bitboards of the squares holding each kind of Piece, indexed by
+     *  Piece.ordinal().  Square index I is bit I of _lo[p] for I < 64
+     *  and bit I - 64 of _hi[p] otherwise.  The EMPTY entry is unused. */
+    private long[] _lo, _hi;
+    /** Index of the king's square, or -1 if the king has been captured. */
+    private int _king;
+    /** Bitboard of the squares holding threatened pieces (see
+     *  isThreatened), updated by put. */
+    private long _threatLo, _threatHi;
+    /** True iff _kingAttackers, _kingMobility, and _kingEscapes may be
+     *  out of date (see updateKingTerms). */
+    private boolean _kingTermsStale;
+    /** Number of black pieces and empty throne squares next to the
+     *  king. */
+    private int _kingAttackers;
+    /** Number of squares to which the king can move. */
+    private int _kingMobility;
+    /** Number of directions in which the king can reach the edge. */
+    private int _kingEscapes;
+
+    /** Return true iff the square with index INDEX holds P. */
+    private boolean isSet(Piece p, int index) {
+        return ((_lo[p.ordinal()] & bitLo(index))
+                | (_hi[p.ordinal()] & bitHi(index))) != 0;
+    }
+
+    /** Return the low word of the bitboard of occupied squares. */
+    private long occupiedLo() {
+        return _lo[WHITE.ordinal()] | _lo[BLACK.ordinal()]
+            | _lo[KING.ordinal()];
+    }
+
+    /** Return the high word of the bitboard of occupied squares. */
+    private long occupiedHi() {
+        return _hi[WHITE.ordinal()] | _hi[BLACK.ordinal()]
+            | _hi[KING.ordinal()];
+    }
 
+    /** Return true iff the bitboard LO, HI contains square INDEX. */
+    private static boolean contains(long lo, long hi, int index) {
+        return ((lo & bitLo(index)) | (hi & bitHi(index))) != 0;
+    }
+
+    /** Return the low word of a bitboard containing only square INDEX. */
+    private static long bitLo(int index) {
+        return index < Long.SIZE ? 1L << index : 0L;
+    }
+
+    /** Return the high word of a bitboard containing only square INDEX. */
+    private static long bitHi(int index) {
+        return index < Long.SIZE ? 0L : 1L << (index - Long.SIZE);
+    }
+
+    /** Return the smallest square index in the bitboard LO, HI, or -1 if
+     *  it is empty. */
+    private static int lowestBit(long lo, long hi) {
+        if (lo != 0) {
+            return Long.numberOfTrailingZeros(lo);
+        } else if (hi != 0) {
+            return Long.numberOfTrailingZeros(hi) + Long.SIZE;
+        }
+        return -1;
+    }
+
+    /** Return the largest square index in the bitboard LO, HI, or -1 if
+     *  it is empty. */
+    private static int highestBit(long lo, long hi) {
+        if (hi != 0) {
+            return 2 * Long.SIZE - 1 - Long.numberOfLeadingZeros(hi);
+        } else if (lo != 0) {
+            return Long.SIZE - 1 - Long.numberOfLeadingZeros(lo);
+        }
+        return -1;
+    }
+
+    /** Initial capacity of the undo buffer. */
+    private static final int INITIAL_UNDO_SIZE = 1024;
+
+    /** Flag bit in an undo header marking a repeated position. */
+    private static final int REPEATED_FLAG = 4;
+
+    /** Shift of the change count in an undo header. */
+    private static final int UNDO_COUNT_SHIFT = 3;
+
+    /** All Pieces, in ordinal order. */
+    private static final Piece[] PIECES = Piece.values();
+
+    /** Seed for the Zobrist keys, fixed so that keys are reproducible
+     *  from run to run. */
+    private static final long ZOBRIST_SEED = 0x7AB1B7L;
+
+    /** ZOBRIST[p][i] is the random key for Piece ordinal p on the square
+     *  with index i.  The EMPTY row is all zeros. */
+    private static final long[][] ZOBRIST =
+        new long[PIECES.length][NUM_SQUARES];
+
+    /** Key toggled in a position's hash whenever the turn changes. */
+    private static final long TURN_KEY;
+
+    /** Change in square index for one step in each direction, as numbered
+     *  in Square. */
+    private static final int[] STEP = { SIZE, 1, -SIZE, -1 };
+
+    /** RAY_LO[i][d], RAY_HI[i][d] is the bitboard of all squares in
+     *  direction d from the square with index i. */
+    private static final long[][] RAY_LO = new long[NUM_SQUARES][4],
+        RAY_HI = new long[NUM_SQUARES][4];
+
+    /** EDGE_DISTANCE[i] is the distance from the square with index i to
+     *  the nearest edge, and CORNER_DISTANCE[i] the number of rook steps
+     *  from it to the nearest corner. */
+    private static final int[] EDGE_DISTANCE = new int[NUM_SQUARES],
+        CORNER_DISTANCE = new int[NUM_SQUARES];
+
+    /** NEIGHBOR[i][d] and TWO_AWAY[i][d] are the indices of the squares
+     *  one and two steps in direction d from the square with index i, or
+     *  -1 if off the board. */
+    private static final int[][] NEIGHBOR = new int[NUM_SQUARES][4],
+        TWO_AWAY = new int[NUM_SQUARES][4];
+
+    /** RAY_MOVES[i][d] contains the rook moves in direction d from the
+     *  square with index i, in order of increasing distance. */
+    private static final Move[][][] RAY_MOVES = new Move[NUM_SQUARES][4][];
+
+    /** RAY_CODES[i][d] contains the codes of the moves in
+     *  RAY_MOVES[i][d]. */
+    private static final int[][][] RAY_CODES = new int[NUM_SQUARES][4][];
+
+    /** PATH_LO[i * NUM_SQUARES + j], PATH_HI[...] is the bitboard of the
+     *  squares that must be empty for a rook move from square index i to
+     *  square index j: those after i up to and including j.  Both are 0
+     *  if i-j is not a rook move. */
+    private static final long[] PATH_LO = new long[NUM_SQUARES * NUM_SQUARES],
+        PATH_HI = new long[NUM_SQUARES * NUM_SQUARES];
+
+    static {
+        Random keys = new Random(ZOBRIST_SEED);
+        for (int p = 1; p < PIECES.length; p += 1) {
+            for (int i = 0; i < NUM_SQUARES; i += 1) {
+                ZOBRIST[p][i] = keys.nextLong();
+            }
+        }
+        TURN_KEY = keys.nextLong();
+
+        for (Square from : SQUARE_LIST) {
+            int i = from.index();
+            int colDistance = Math.min(from.col(), SIZE - 1 - from.col()),
+                rowDistance = Math.min(from.row(), SIZE - 1 - from.row());
+            EDGE_DISTANCE[i] = Math.min(colDistance, rowDistance);
+            CORNER_DISTANCE[i] = colDistance + rowDistance;
+            for (int d = 0; d < 4; d += 1) {
+                NEIGHBOR[i][d] = TWO_AWAY[i][d] = -1;
+                long lo = 0, hi = 0;
+                int dist = 0;
+                for (Square to : ROOK_SQUARES[i][d]) {
+                    int j = to.index();
+                    lo |= bitLo(j);
+                    hi |= bitHi(j);
+                    PATH_LO[i * NUM_SQUARES + j] = lo;
+                    PATH_HI[i * NUM_SQUARES + j] = hi;
+                    dist += 1;
+                    if (dist == 1) {
+                        NEIGHBOR[i][d] = j;
+                    } else if (dist == 2) {
+                        TWO_AWAY[i][d] = j;
+                    }
+                }
+                RAY_LO[i][d] = lo;
+                RAY_HI[i][d] = hi;
+                RAY_MOVES[i][d] = ROOK_MOVES[i][d].toArray(new Move[0]);
+                RAY_CODES[i][d] = new int[RAY_MOVES[i][d].length];
+                for (int k = 0; k < RAY_CODES[i][d].length; k += 1) {
+                    RAY_CODES[i][d][k] = RAY_MOVES[i][d][k].code();
+                }
+            }
+        }
+    }
 }
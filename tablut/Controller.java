@@ -1,6 +1,11 @@
 package tablut;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.regex.Pattern;
@@ -16,6 +21,10 @@ import static tablut.Piece.*;
  */
 final class Controller {
 
+    /** Default time in milliseconds automated players may take per
+     *  move. */
+    static final long DEFAULT_MOVE_TIME = 1000;
+
     /** Controller for one or more games of Tablut, using
      *  MANUALPLAYERTEMPLATE as an exemplar for manual players
      *  (see the Player.create method) and AUTOPLAYERTEMPLATE
@@ -50,10 +59,13 @@ final class Controller {
             _view.update(this);
             String command;
             if (_winner == null) {
-                if (_board.turn() == WHITE) {
-                    command = _white.myMove();
-                } else {
-                    command = _black.myMove();
+                Player player = _board.turn() == WHITE ? _white : _black;
+                _lastStats = null;
+                long start = System.currentTimeMillis();
+                command = player.myMove();
+                _moveMillis = System.currentTimeMillis() - start;
+                if (!player.isManual()) {
+                    _lastSearcher = player;
                 }
             } else {
                 command = _nonPlayer.myMove();
@@ -70,9 +82,19 @@ final class Controller {
                 }
             }
         }
+        _white.stopThinking();
+        _black.stopThinking();
         if (_logFile != null) {
             _logFile.close();
         }
+        if (_record != null) {
+            try {
+                endRecordedGame();
+                _record.close();
+            } catch (IOException | IllegalArgumentException excp) {
+                reportError("Error: %s", excp.getMessage());
+            }
+        }
     }
 
     /** Return the current board.  The value returned should not be
@@ -81,6 +103,36 @@ final class Controller {
         return _board;
     }
 
+    /** Return the time in milliseconds that automated players may spend
+     *  choosing a move. */
+    long moveTime() {
+        return _moveTime;
+    }
+
+    /** Record each game played from the initial position in RECORD (if
+     *  not null), which is closed when play ends. */
+    void setRecord(GameRecord.Writer record) {
+        _record = record;
+    }
+
+    /** Use TABLEBASE (if not null) to answer the "tablebase"
+     *  command. */
+    void setTablebase(Tablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Make TEMPLATE the exemplar for automated players requested as
+     *  "auto <color> NAME". */
+    void addEngine(String name, Player template) {
+        _engines.put(name, template);
+    }
+
+    /** Set the time automated players may spend choosing a move to
+     *  MILLIS milliseconds. */
+    void setMoveTime(long millis) {
+        _moveTime = millis;
+    }
+
     /** Return a random integer in the range 0 inclusive to U, exclusive.
      *  Available for use by AIs that use random selections in some cases.
      *  Once setRandomSeed is called with a particular value, this method
@@ -93,6 +145,7 @@ final class Controller {
      *  with the value SEED. Identical seeds produce identical sequences.
      *  Initially, the PRNG is randomly seeded. */
     void setSeed(long seed) {
+        _seed = seed;
         _randGen.setSeed(seed);
     }
 
@@ -136,6 +189,13 @@ final class Controller {
         _reporter.reportMove(move);
     }
 
+    /** Record STATS, describing the search for an automated player's
+     *  move, in the log (if any) as a "stats" comment. */
+    void reportStatistics(SearchStats stats) {
+        _lastStats = stats;
+        logComment("stats %s", stats);
+    }
+
     /** Print a comment in the log.  The arguments FORMAT and ARGS are
      *  as for String.format. */
     void logComment(String format, Object... args) {
@@ -172,8 +232,12 @@ final class Controller {
         new Command("dump$", this::doDump),
         new Command("undo$", this::doUndo),
         new Command("manual\\s+(white|black)$", this::doManual),
-        new Command("auto\\s+(white|black)$", this::doAuto),
+        new Command("auto\\s+(white|black)(?:\\s+(\\w+))?$", this::doAuto),
         new Command("limit\\s+(\\d+)$", this::doLimit),
+        new Command("time\\s+(\\d+)$", this::doTime),
+        new Command("perft\\s+(\\d+)(\\s+divide)?$", this::doPerft),
+        new Command("pv$", this::doPv),
+        new Command("tablebase$", this::doTablebase),
         new Command("toggle\\s+" + SQ + "$", this::doToggle),
         new Command(Move.MOVE_PATTERN.pattern(), this::doMove)
     };
@@ -207,17 +271,21 @@ final class Controller {
 
     /** Command "new". */
     private void doNew(Matcher unused) {
+        endRecordedGame();
         _board.init();
         _winner = null;
+        _edited = false;
     }
 
     /** Command "manual <color>", where <color> is COLOR.group(1). */
     private void doManual(Matcher color) {
         switch (color.group(1)) {
         case "black":
+            _black.stopThinking();
             _black = _manualPlayerTemplate.create(BLACK, this);
             break;
         case "white":
+            _white.stopThinking();
             _white = _manualPlayerTemplate.create(WHITE, this);
             break;
         default:
@@ -226,14 +294,26 @@ final class Controller {
         _view.update(this);
     }
 
-    /** Command "auto <color>", where <color> is COLOR.group(1). */
+    /** Command "auto <color> [<engine>]", where <color> is
+     *  COLOR.group(1) and <engine>, the name of a template given to
+     *  addEngine, is COLOR.group(2).  Without an engine, uses the
+     *  template given to my constructor. */
     private void doAuto(Matcher color) {
+        Player template = _autoPlayerTemplate;
+        if (color.group(2) != null) {
+            template = _engines.get(color.group(2));
+            if (template == null) {
+                throw error("unknown engine: %s", color.group(2));
+            }
+        }
         switch (color.group(1)) {
         case "black":
-            _black = _autoPlayerTemplate.create(BLACK, this);
+            _black.stopThinking();
+            _black = template.create(BLACK, this);
             break;
         case "white":
-            _white = _autoPlayerTemplate.create(WHITE, this);
+            _white.stopThinking();
+            _white = template.create(WHITE, this);
             break;
         default:
             assert false;
@@ -256,6 +336,12 @@ final class Controller {
         }
         _board.put(piece, sq);
         _board.clearUndo();
+        if (_winner != null) {
+            endRecordedGame();
+        } else if (_record != null) {
+            _record.discardGame();
+        }
+        _edited = true;
     }
 
     /** Command "quit". */
@@ -281,9 +367,82 @@ final class Controller {
         }
     }
 
+    /** Command "time N" where N, the first captured group of MAT, is the
+     *  time in milliseconds automated players may take per move. */
+    private void doTime(Matcher mat) {
+        try {
+            setMoveTime(Long.parseLong(mat.group(1)));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
+    /** Command "perft N [divide]" where N, the first captured group of
+     *  MAT, is the depth to which to count the moves from the current
+     *  position.  The second group is present for "divide". */
+    private void doPerft(Matcher mat) {
+        int depth;
+        try {
+            depth = Integer.parseInt(mat.group(1));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        new Perft(_board).report(depth, mat.group(2) != null, System.out);
+    }
+
+    /** Command "pv": report the principal variation expected by the
+     *  automated player that last chose a move. */
+    private void doPv(Matcher unused) {
+        List<Move> pv;
+        if (_lastSearcher == null) {
+            pv = Collections.emptyList();
+        } else {
+            pv = _lastSearcher.principalVariation();
+        }
+        if (pv.isEmpty()) {
+            reportNote("No principal variation.");
+            return;
+        }
+        StringBuilder moves = new StringBuilder();
+        for (Move move : pv) {
+            moves.append(' ').append(move);
+        }
+        reportNote("%s expects:%s", _lastSearcher.myPiece().toName(), moves);
+    }
+
+    /** Command "tablebase": report the tablebase's value for the current
+     *  position. */
+    private void doTablebase(Matcher unused) {
+        if (_tablebase == null) {
+            reportNote("No tablebase.");
+        } else if (_board.winner() != null) {
+            reportNote("The game is over.");
+        } else {
+            reportNote("Tablebase: %s.",
+                       Tablebase.describe(_tablebase.probe(_board),
+                                          _board.turn()));
+        }
+    }
+
     /** Execute a move command matched in MAT. */
     private void doMove(Matcher mat) {
-        _board.makeMove(Move.mv(mat.group(0)));
+        Move move = Move.mv(mat.group(0));
+        if (_record != null && !_record.inGame() && !_edited
+            && _winner == null && _board.moveCount() == 0) {
+            _record.startGame(_board.moveLimit(), _seed);
+        }
+        Piece mover = _board.turn();
+        _board.makeMove(move);
+        if (_record != null && _record.inGame()) {
+            int score = GameRecord.NO_SCORE;
+            if (_lastStats != null && _lastStats.player() == mover
+                && _lastStats.get("score") != null) {
+                score = _lastStats.get("score").intValue();
+            }
+            _record.addMove(move, score, _moveMillis);
+        }
+        _lastStats = null;
+        _moveMillis = 0;
         if (_winner == null) {
             _winner = _board.winner();
             if (_winner != null) {
@@ -293,6 +452,22 @@ final class Controller {
         }
     }
 
+    /** Write the game being recorded, if there is one, with its winner
+     *  and the current players' types.  A game is written only when it
+     *  is replaced or play ends, so that moves taken back after a win
+     *  are taken back in the record too. */
+    private void endRecordedGame() {
+        if (_record != null && _record.inGame()) {
+            try {
+                _record.endGame(_winner, GameRecord.playerType(_white),
+                                GameRecord.playerType(_black));
+            } catch (IOException excp) {
+                throw error("could not write game record: %s",
+                            excp.getMessage());
+            }
+        }
+    }
+
     /** Dump the contents of the board on standard output. */
     private void doDump(Matcher unused) {
         System.out.printf("===%n%s===%n", _board);
@@ -304,6 +479,10 @@ final class Controller {
         if (_board.moveCount() > 1) {
             _board.undo();
             _board.undo();
+            if (_record != null && _record.inGame()) {
+                _record.undoMove();
+                _record.undoMove();
+            }
             _winner = null;
             _view.update(this);
         }
@@ -321,6 +500,30 @@ final class Controller {
     /** The object that is displaying the current game. */
     private View _view;
 
+    /** Time in milliseconds automated players may take per move. */
+    private long _moveTime = DEFAULT_MOVE_TIME;
+
+    /** Tablebase consulted by the "tablebase" command, or null. */
+    private Tablebase _tablebase;
+
+    /** The seed last given to setSeed, or 0 if none. */
+    private long _seed;
+
+    /** Record of the games played, or null if none. */
+    private GameRecord.Writer _record;
+
+    /** True iff squares of the current game's board have been
+     *  toggled. */
+    private boolean _edited;
+
+    /** Statistics of the last search reported since the last move, or
+     *  null if none. */
+    private SearchStats _lastStats;
+
+    /** Milliseconds taken by the last player to choose the command being
+     *  executed. */
+    private long _moveMillis;
+
     /** My pseudo-random number generator. */
     private Random _randGen = new Random();
 
@@ -334,6 +537,10 @@ final class Controller {
      *  _autoPlayerTemplate or _manualPlayerTemplate. */
     private Player _white, _black;
 
+    /** The automated player that most recently chose a move, or null
+     *  if there is none. */
+    private Player _lastSearcher;
+
     /** A dummy Player used to return commands but not moves when no
      *  game is in progress. */
     private Player _nonPlayer;
@@ -341,6 +548,9 @@ final class Controller {
     /** The current templates for manual and automated players. */
     private Player _autoPlayerTemplate, _manualPlayerTemplate;
 
+    /** Templates for automated players, by engine name. */
+    private Map<String, Player> _engines = new HashMap<>();
+
     /** Reporter for messages and errors. */
     private Reporter _reporter;
 
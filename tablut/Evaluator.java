@@ -0,0 +1,14 @@
+package tablut;
+
+/** A static evaluation of Tablut positions, used by AI at the leaves
+ *  of its search.  Implementations must be safe to share between
+ *  threads.
+ *  @author Sameer Varma
+ */
+interface Evaluator {
+
+    /** Return the value of BOARD, in which neither side has yet won:
+     *  positive if it favors White, negative if it favors Black. */
+    int evaluate(Board board);
+
+}
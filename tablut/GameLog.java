@@ -0,0 +1,122 @@
+package tablut;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** A reader of the games recorded in a log written by Main's --log
+ *  option.  The commands in the log are replayed as the Controller
+ *  executed them, and each game that ended in a win is made available
+ *  in turn.  Commands that the Controller would have rejected are
+ *  ignored, as are games in which squares were toggled.
+ *  @author Sameer Varma
+ */
+class GameLog implements Closeable {
+
+    /** Matches the command that sets the move limit. */
+    private static final Pattern LIMIT = Pattern.compile("limit\\s+(\\d+)");
+
+    /** A reader of the log in the file FILENAME. */
+    GameLog(String fileName) throws IOException {
+        _in = Files.newBufferedReader(Paths.get(fileName));
+    }
+
+    /** Advance to the next game in the log that ended in a win,
+     *  returning false if there is none. */
+    boolean next() throws IOException {
+        while (!_done) {
+            String line = _in.readLine();
+            if (line == null) {
+                _done = true;
+                return finish();
+            }
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            String cmnd = line.trim().toLowerCase();
+            Matcher limit = LIMIT.matcher(cmnd);
+            if (cmnd.equals("new")) {
+                if (finish()) {
+                    return true;
+                }
+            } else if (cmnd.equals("undo")) {
+                if (_board.moveCount() > 1) {
+                    _board.undo();
+                    _board.undo();
+                    _moves.subList(Math.max(0, _moves.size() - 2),
+                                   _moves.size()).clear();
+                }
+            } else if (cmnd.startsWith("toggle")) {
+                _edited = true;
+            } else if (limit.matches()) {
+                try {
+                    _board.setMoveLimit(Integer.parseInt(limit.group(1)));
+                } catch (NumberFormatException excp) {
+                    /* Ignore, as the Controller does. */
+                }
+            } else if (Move.isGrammaticalMove(cmnd)) {
+                Move move = Move.mv(cmnd);
+                if (move != null && _board.winner() == null
+                    && _board.isLegal(move)) {
+                    _board.makeMove(move);
+                    _moves.add(move);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the moves of the current game, starting from the initial
+     *  position. */
+    List<Move> moves() {
+        return Collections.unmodifiableList(_game);
+    }
+
+    /** Return the winner of the current game. */
+    Piece winner() {
+        return _winner;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    /** End the game being replayed and start another.  Returns true, and
+     *  makes the ended game current, if it ended in a win and was not
+     *  edited. */
+    private boolean finish() {
+        boolean won = !_edited && _board.winner() != null;
+        if (won) {
+            _game = new ArrayList<>(_moves);
+            _winner = _board.winner();
+        }
+        _board.init();
+        _moves.clear();
+        _edited = false;
+        return won;
+    }
+
+    /** The log. */
+    private final BufferedReader _in;
+    /** True once the end of the log has been reached. */
+    private boolean _done;
+    /** The position reached by the commands read so far. */
+    private final Board _board = new Board();
+    /** The moves leading to _board. */
+    private final List<Move> _moves = new ArrayList<>();
+    /** True iff squares of _board were toggled. */
+    private boolean _edited;
+    /** Moves of the current game. */
+    private List<Move> _game = new ArrayList<>();
+    /** Winner of the current game. */
+    private Piece _winner;
+}
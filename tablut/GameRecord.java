@@ -0,0 +1,351 @@
+package tablut;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static tablut.Piece.*;
+import static tablut.Utils.error;
+
+/** A compact binary format for archives of games, written as games are
+ *  played (see Writer) and replayed from memory-mapped files (see
+ *  Reader).  An archive is MAGIC followed by any number of games.  Each
+ *  game is
+ *      a header: the move limit (int, 0 if none), the random seed
+ *          (long, as last set by the seed command, or 0), the types of
+ *          the White and Black players (bytes, see playerType), and
+ *          FLAGS (byte), telling which of the optional fields below are
+ *          present;
+ *      its moves, each its code (see Move.code) as a short, followed,
+ *          if FLAGS includes SCORES, by the mover's score for it (int,
+ *          NO_SCORE if unknown), and, if FLAGS includes TIMES, by the
+ *          time taken to choose it in milliseconds (int);
+ *      END (short) and the winner (byte: 0 if none, or the ordinal of
+ *          WHITE or BLACK).
+ *  Multi-byte values are big-endian.  All games start from the initial
+ *  position.
+ *  @author Sameer Varma
+ */
+class GameRecord {
+
+    /** First four bytes of an archive. */
+    static final int MAGIC = 0x54475232;
+
+    /** Flag indicating that each move has a score. */
+    static final int SCORES = 1;
+
+    /** Flag indicating that each move has a time. */
+    static final int TIMES = 2;
+
+    /** Score recorded for a move whose score is unknown. */
+    static final int NO_SCORE = Integer.MIN_VALUE;
+
+    /** Player types: a manual player, the alpha-beta AI, Monte Carlo
+     *  tree search, and others. */
+    static final int MANUAL = 0, ALPHA_BETA = 1, MONTE_CARLO = 2,
+        OTHER = 3;
+
+    /** Size of a game's header. */
+    private static final int HEADER_SIZE = 4 + 8 + 1 + 1 + 1;
+
+    /** The short that follows a game's last move. */
+    private static final short END = -1;
+
+    /** Most bytes mapped at once by a Reader. */
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    /** Return the type of PLAYER. */
+    static int playerType(Player player) {
+        if (player.isManual()) {
+            return MANUAL;
+        } else if (player instanceof AI) {
+            return ALPHA_BETA;
+        } else if (player instanceof MCTS) {
+            return MONTE_CARLO;
+        } else {
+            return OTHER;
+        }
+    }
+
+    /** Return the size of the record of one move in a game with
+     *  FLAGS. */
+    private static int moveSize(int flags) {
+        return 2 + ((flags & SCORES) != 0 ? 4 : 0)
+            + ((flags & TIMES) != 0 ? 4 : 0);
+    }
+
+    /** Writes games to an archive.  Each game's moves are held until it
+     *  ends, so that moves may be taken back, and the game is then
+     *  written in one piece. */
+    static class Writer implements Closeable {
+
+        /** A writer of a new archive in the file FILENAME, whose games
+         *  have the fields indicated by FLAGS (SCORES and TIMES). */
+        Writer(String fileName, int flags) throws IOException {
+            _out = new DataOutputStream(
+                new BufferedOutputStream(
+                    Files.newOutputStream(Paths.get(fileName))));
+            _out.writeInt(MAGIC);
+            _flags = flags;
+        }
+
+        /** Begin a game, discarding any game in progress, with move
+         *  limit LIMIT and random seed SEED. */
+        void startGame(int limit, long seed) {
+            _limit = limit;
+            _seed = seed;
+            _size = 0;
+            _inGame = true;
+        }
+
+        /** Return true iff a game has been started and not ended or
+         *  discarded. */
+        boolean inGame() {
+            return _inGame;
+        }
+
+        /** Add MOVE to the current game, with its SCORE (or NO_SCORE)
+         *  and the MILLIS milliseconds taken to choose it. */
+        void addMove(Move move, int score, long millis) {
+            if (_size == _moves.length) {
+                _moves = Arrays.copyOf(_moves, 2 * _size);
+                _scores = Arrays.copyOf(_scores, 2 * _size);
+                _times = Arrays.copyOf(_times, 2 * _size);
+            }
+            _moves[_size] = (short) move.code();
+            _scores[_size] = score;
+            _times[_size] = (int) Math.min(millis, Integer.MAX_VALUE);
+            _size += 1;
+        }
+
+        /** Remove the last move of the current game, if any. */
+        void undoMove() {
+            _size = Math.max(0, _size - 1);
+        }
+
+        /** Write the current game, which ended with WINNER (null if
+         *  none) between players of types WHITE and BLACK. */
+        void endGame(Piece winner, int white, int black) throws IOException {
+            _out.writeInt(_limit);
+            _out.writeLong(_seed);
+            _out.writeByte(white);
+            _out.writeByte(black);
+            _out.writeByte(_flags);
+            for (int k = 0; k < _size; k += 1) {
+                _out.writeShort(_moves[k]);
+                if ((_flags & SCORES) != 0) {
+                    _out.writeInt(_scores[k]);
+                }
+                if ((_flags & TIMES) != 0) {
+                    _out.writeInt(_times[k]);
+                }
+            }
+            _out.writeShort(END);
+            _out.writeByte(winner == null ? 0 : winner.ordinal());
+            _inGame = false;
+        }
+
+        /** Abandon the current game without writing it. */
+        void discardGame() {
+            _inGame = false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _out.close();
+        }
+
+        /** The archive. */
+        private final DataOutputStream _out;
+        /** Fields present in each game. */
+        private final int _flags;
+        /** True while a game is being recorded. */
+        private boolean _inGame;
+        /** Move limit of the current game. */
+        private int _limit;
+        /** Random seed of the current game. */
+        private long _seed;
+        /** Codes of the moves of the current game. */
+        private short[] _moves = new short[256];
+        /** Scores and times of the moves of the current game. */
+        private int[] _scores = new int[256], _times = new int[256];
+        /** Number of moves in the current game. */
+        private int _size;
+    }
+
+    /** Reads the games in an archive in order, directly from the mapped
+     *  file. */
+    static class Reader implements Closeable {
+
+        /** A reader of the archive in the file FILENAME. */
+        Reader(String fileName) throws IOException {
+            _channel = FileChannel.open(Paths.get(fileName),
+                                        StandardOpenOption.READ);
+            _length = _channel.size();
+            map(0);
+            if (_length < 4 || _data.getInt(0) != MAGIC) {
+                close();
+                throw error("not a game record: %s", fileName);
+            }
+            _next = 4;
+        }
+
+        /** Advance to the next game, returning false if there is
+         *  none. */
+        boolean next() throws IOException {
+            if (_next >= _length) {
+                return false;
+            }
+            if (_next + HEADER_SIZE > _base + _data.limit()) {
+                map(_next);
+            }
+            _start = (int) (_next - _base);
+            if (_start + HEADER_SIZE > _data.limit()) {
+                throw error("truncated game record");
+            }
+            int step = moveSize(flags());
+            int p = _start + HEADER_SIZE;
+            _moveCount = 0;
+            while (true) {
+                if (p + 3 > _data.limit()) {
+                    if (_base + p + 3 > _length) {
+                        throw error("truncated game record");
+                    } else if (_start == 0) {
+                        throw error("game record too long");
+                    }
+                    map(_next);
+                    p -= _start;
+                    _start = 0;
+                    continue;
+                }
+                if (_data.getShort(p) == END) {
+                    break;
+                }
+                p += step;
+                _moveCount += 1;
+            }
+            _end = p;
+            _next = _base + p + 3;
+            return true;
+        }
+
+        /** Return the move limit of the current game (0 if none). */
+        int moveLimit() {
+            return _data.getInt(_start);
+        }
+
+        /** Return the random seed of the current game. */
+        long seed() {
+            return _data.getLong(_start + 4);
+        }
+
+        /** Return the type of the SIDE (WHITE or BLACK) player of the
+         *  current game (see playerType). */
+        int playerType(Piece side) {
+            return _data.get(_start + (side == WHITE ? 12 : 13));
+        }
+
+        /** Return the flags of the current game: which of SCORES and
+         *  TIMES it has. */
+        int flags() {
+            return _data.get(_start + 14);
+        }
+
+        /** Return the number of moves in the current game. */
+        int moveCount() {
+            return _moveCount;
+        }
+
+        /** Return move K of the current game. */
+        Move move(int k) {
+            return Move.mv(_data.getShort(moveOffset(k)));
+        }
+
+        /** Return the moves of the current game. */
+        List<Move> moves() {
+            List<Move> result = new ArrayList<>(_moveCount);
+            for (int k = 0; k < _moveCount; k += 1) {
+                result.add(move(k));
+            }
+            return result;
+        }
+
+        /** Return the mover's score for move K of the current game, or
+         *  NO_SCORE if there is none. */
+        int score(int k) {
+            if ((flags() & SCORES) == 0) {
+                return NO_SCORE;
+            }
+            return _data.getInt(moveOffset(k) + 2);
+        }
+
+        /** Return the milliseconds taken to choose move K of the current
+         *  game, or -1 if not recorded. */
+        int time(int k) {
+            if ((flags() & TIMES) == 0) {
+                return -1;
+            }
+            return _data.getInt(moveOffset(k) + 2
+                                + ((flags() & SCORES) != 0 ? 4 : 0));
+        }
+
+        /** Return the winner of the current game, or null if it did not
+         *  end in a win. */
+        Piece winner() {
+            int winner = _data.get(_end + 2);
+            if (winner == WHITE.ordinal()) {
+                return WHITE;
+            } else if (winner == BLACK.ordinal()) {
+                return BLACK;
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            _channel.close();
+        }
+
+        /** Return the position in _data of the record of move K of the
+         *  current game. */
+        private int moveOffset(int k) {
+            if (k < 0 || k >= _moveCount) {
+                throw error("no move %d", k);
+            }
+            return _start + HEADER_SIZE + k * moveSize(flags());
+        }
+
+        /** Map the part of the file starting at POSITION. */
+        private void map(long position) throws IOException {
+            _base = position;
+            _data = _channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                 Math.min(SEGMENT_SIZE,
+                                          _length - position));
+        }
+
+        /** The archive. */
+        private final FileChannel _channel;
+        /** Length of the archive. */
+        private final long _length;
+        /** The mapped part of the archive. */
+        private ByteBuffer _data;
+        /** Position in the file of the start of _data. */
+        private long _base;
+        /** Position in the file of the next game. */
+        private long _next;
+        /** Positions in _data of the current game and of its END. */
+        private int _start, _end;
+        /** Number of moves in the current game. */
+        private int _moveCount;
+    }
+}
@@ -0,0 +1,522 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static tablut.Piece.*;
+
+/** A Player that chooses moves by Monte Carlo tree search.  Each
+ *  iteration descends the tree by UCT from the current position,
+ *  expands the leaf it reaches, plays the game out from there with
+ *  quick, mostly random moves, and credits the result to every node on
+ *  the way down.  The tree is kept in parallel primitive arrays indexed
+ *  by node number, each node's children occupying consecutive numbers,
+ *  and the subtree for the position reached after my move and my
+ *  opponent's reply is reused by the next search.  Several threads may
+ *  search the same tree at once; a node counts a loss for each thread
+ *  currently below it (a virtual loss) so that they tend to explore
+ *  different lines.
+ *  @author Sameer Varma
+ */
+class MCTS extends Player {
+
+    /** Default size of the tree, in megabytes. */
+    static final int DEFAULT_TREE_SIZE = 64;
+
+    /** Bytes of tree arrays per node: the visit count, score, virtual
+     *  losses, and first child as ints, and the move and number of
+     *  children as shorts. */
+    static final int BYTES_PER_NODE = 4 * 4 + 2 * 2;
+
+    /** Weight of the exploration term of the UCT formula. */
+    private static final double EXPLORATION = 1.0;
+
+    /** Number of plies after which a playout is scored as a draw. */
+    private static final int PLAYOUT_LIMIT = 256;
+
+    /** Number of random moves a playout considers at each step,
+     *  stopping at the first capture. */
+    private static final int PLAYOUT_SAMPLES = 3;
+
+    /** Most plies between searched positions across which the tree is
+     *  reused. */
+    private static final int MAX_REUSE_PLIES = 2;
+
+    /** Number of playouts by each thread between checks of the
+     *  clock. */
+    private static final int TIME_CHECK_INTERVAL = 64;
+
+    /** Value of _firstChild for a node whose children are being
+     *  added. */
+    private static final int EXPANDING = -1;
+
+    /** Value of _firstChild for a node whose move wins the game. */
+    private static final int WON = -2;
+
+    /** A new MCTS player template with a tree of DEFAULT_TREE_SIZE
+     *  megabytes, searched by one thread. */
+    MCTS() {
+        this(DEFAULT_TREE_SIZE, 1);
+    }
+
+    /** A new MCTS player template whose players each keep a tree of
+     *  MEGABYTES megabytes and search it with THREADS threads. */
+    MCTS(int megabytes, int threads) {
+        this(null, null, megabytes,
+             threads > 1 ? new ForkJoinPool(threads) : null, threads);
+    }
+
+    /** A new MCTS player playing PIECE under control of CONTROLLER, with
+     *  a tree of MEGABYTES megabytes searched by THREADS threads of POOL
+     *  (or by the calling thread if POOL is null). */
+    private MCTS(Piece piece, Controller controller, int megabytes,
+                 ForkJoinPool pool, int threads) {
+        super(piece, controller);
+        _megabytes = megabytes;
+        _pool = pool;
+        _threads = pool == null ? 1 : threads;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MCTS(piece, controller, _megabytes, _pool, _threads);
+    }
+
+    @Override
+    String myMove() {
+        long start = System.currentTimeMillis();
+        _random.setSeed(_controller.randInt(Integer.MAX_VALUE));
+        Move move = findMove(board(), Long.MAX_VALUE,
+                             _controller.moveTime());
+        reportSearch(System.currentTimeMillis() - start);
+        _controller.reportMove(move);
+        return move.toString();
+    }
+
+    @Override
+    boolean isManual() {
+        return false;
+    }
+
+    /** Return a move for the side to move on BOARD, which is unchanged,
+     *  after searching until PLAYOUTS playouts have been made or MILLIS
+     *  milliseconds have passed: a move found to win at once, or else
+     *  the most-visited move, or null if there is no legal move.  With
+     *  one thread, the result depends only on BOARD, PLAYOUTS, the tree
+     *  left by the previous search, and the seed of my random number
+     *  generator, unless the time runs out. */
+    Move findMove(Board board, long playouts, long millis) {
+        if (_visits == null) {
+            allocate();
+        }
+        int root = reusableNode(board);
+        _reusedVisits = root < 0 ? 0 : _visits.get(root);
+        if (root < 0 || _size.get() > _capacity / 2) {
+            clearTree();
+            root = 0;
+            _reusedVisits = 0;
+        }
+        _root = root;
+        _rootBoard = new Board(board);
+        long start = System.currentTimeMillis();
+        long deadline = millis >= Long.MAX_VALUE - start ? Long.MAX_VALUE
+            : start + millis;
+        AtomicLong remaining = new AtomicLong(playouts);
+        Worker[] workers = new Worker[_threads];
+        for (int k = 0; k < _threads; k += 1) {
+            workers[k] = new Worker(board, _random.nextLong(), remaining,
+                                    deadline);
+        }
+        if (_pool == null) {
+            workers[0].run();
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Worker worker : workers) {
+                tasks.add(_pool.submit(worker));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+        _playouts = 0;
+        for (Worker worker : workers) {
+            _playouts += worker._playouts;
+        }
+        _principalVariation = new ArrayList<>();
+        for (int node = bestChild(_root); node > 0;
+             node = bestChild(node)) {
+            _principalVariation.add(Move.mv(_move[node]));
+        }
+        return _principalVariation.isEmpty() ? null
+            : _principalVariation.get(0);
+    }
+
+    @Override
+    List<Move> principalVariation() {
+        return _principalVariation;
+    }
+
+    /** Return the number of playouts made by the last search. */
+    long playouts() {
+        return _playouts;
+    }
+
+    /** Return the number of nodes in my tree. */
+    int treeSize() {
+        return Math.min(_size.get(), _capacity);
+    }
+
+    /** Log the playouts made by the last search, which took TIME
+     *  milliseconds, and the size of the tree. */
+    private void reportSearch(long time) {
+        StringBuilder pv = new StringBuilder();
+        for (Move move : _principalVariation) {
+            pv.append(' ').append(move);
+        }
+        _controller.logComment("%s: principal variation%s",
+                               myPiece().toName(), pv);
+        _controller.logComment("%s: %d playouts in %d ms"
+                               + " (%.0f playouts/s, %d threads),"
+                               + " %d visits reused",
+                               myPiece().toName(), _playouts, time,
+                               time == 0 ? 0.0 : 1000.0 * _playouts / time,
+                               _threads, _reusedVisits);
+        _controller.logComment("%s: %d tree nodes of %d,"
+                               + " %d bytes per node (%.1f MB)",
+                               myPiece().toName(), treeSize(), _capacity,
+                               BYTES_PER_NODE,
+                               (double) treeSize() * BYTES_PER_NODE
+                               / (1 << 20));
+    }
+
+    /** Allocate my tree. */
+    private void allocate() {
+        _capacity = (int) Math.max(Board.MAX_MOVES + 1,
+                                   Math.min(Integer.MAX_VALUE / 2,
+                                            ((long) _megabytes << 20)
+                                            / BYTES_PER_NODE));
+        _visits = new AtomicIntegerArray(_capacity);
+        _score = new AtomicIntegerArray(_capacity);
+        _virtual = new AtomicIntegerArray(_capacity);
+        _firstChild = new AtomicIntegerArray(_capacity);
+        _move = new short[_capacity];
+        _childCount = new short[_capacity];
+        clearTree();
+    }
+
+    /** Empty my tree, leaving only an unvisited root, node 0. */
+    private void clearTree() {
+        initNode(0, 0);
+        _size.set(1);
+        _full = false;
+    }
+
+    /** Make NODE an unexpanded, unvisited node reached by the move
+     *  with code MOVE. */
+    private void initNode(int node, int move) {
+        _visits.set(node, 0);
+        _score.set(node, 0);
+        _virtual.set(node, 0);
+        _move[node] = (short) move;
+        _childCount[node] = 0;
+        _firstChild.set(node, 0);
+    }
+
+    /** Return the node of the tree left by the last search that
+     *  represents BOARD, reached from its root by at most
+     *  MAX_REUSE_PLIES moves, or -1 if there is none. */
+    private int reusableNode(Board board) {
+        if (_rootBoard == null) {
+            return -1;
+        }
+        int plies = board.moveCount() - _rootBoard.moveCount();
+        if (plies < 0 || plies > MAX_REUSE_PLIES) {
+            return -1;
+        }
+        return findNode(_root, new Board(_rootBoard), board.key(), plies);
+    }
+
+    /** Return the descendant of NODE, which represents BOARD, reached
+     *  by PLIES moves at which the position has key KEY, or -1 if there
+     *  is none.  BOARD is restored before returning. */
+    private int findNode(int node, Board board, long key, int plies) {
+        if (plies == 0) {
+            return board.key() == key ? node : -1;
+        }
+        int first = _firstChild.get(node);
+        if (first <= 0) {
+            return -1;
+        }
+        for (int c = first; c < first + _childCount[node]; c += 1) {
+            board.makeMove(Move.mv(_move[c]));
+            int result = findNode(c, board, key, plies - 1);
+            board.undo();
+            if (result >= 0) {
+                return result;
+            }
+        }
+        return -1;
+    }
+
+    /** Return a winning child of NODE, if there is one, and otherwise
+     *  its most-visited child, or -1 if it has no visited children. */
+    private int bestChild(int node) {
+        int first = _firstChild.get(node);
+        if (first <= 0) {
+            return -1;
+        }
+        int best = -1, bestVisits = 0;
+        for (int c = first; c < first + _childCount[node]; c += 1) {
+            if (_firstChild.get(c) == WON) {
+                return c;
+            }
+            int visits = _visits.get(c);
+            if (visits > bestVisits
+                || (visits == bestVisits && best >= 0
+                    && _score.get(c) > _score.get(best))) {
+                best = c;
+                bestVisits = visits;
+            }
+        }
+        return best;
+    }
+
+    /** Return a winning child of the expanded node NODE, if one is
+     *  known, and otherwise its first unvisited child or the child with
+     *  the highest UCT value, counting virtual losses. */
+    private int select(int node) {
+        int first = _firstChild.get(node);
+        double logVisits =
+            Math.log(Math.max(1, _visits.get(node) + _virtual.get(node)));
+        int best = first;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        int unvisited = -1;
+        for (int c = first; c < first + _childCount[node]; c += 1) {
+            if (_firstChild.get(c) == WON) {
+                return c;
+            }
+            int visits = _visits.get(c) + _virtual.get(c);
+            if (visits == 0) {
+                if (unvisited < 0) {
+                    unvisited = c;
+                }
+                continue;
+            }
+            double value = _score.get(c) / (2.0 * visits)
+                + EXPLORATION * Math.sqrt(logVisits / visits);
+            if (value > bestValue) {
+                best = c;
+                bestValue = value;
+            }
+        }
+        return unvisited >= 0 ? unvisited : best;
+    }
+
+    /** Add children for each legal move on BOARD to NODE, which
+     *  represents BOARD, using MOVES as scratch space.  Returns false,
+     *  leaving NODE unexpanded, if another thread is expanding it, if it
+     *  has no moves, or if the tree is full. */
+    private boolean expand(int node, Board board, Move[] moves) {
+        if (_full || !_firstChild.compareAndSet(node, 0, EXPANDING)) {
+            return false;
+        }
+        int n = board.legalMoves(board.turn(), moves);
+        int first = _size.getAndAdd(n);
+        if (n == 0 || first + n > _capacity) {
+            _size.getAndAdd(-n);
+            _full = n > 0;
+            _firstChild.set(node, 0);
+            return false;
+        }
+        for (int k = 0; k < n; k += 1) {
+            initNode(first + k, moves[k].code());
+        }
+        _childCount[node] = (short) n;
+        _firstChild.set(node, first);
+        return true;
+    }
+
+    /** Play out the game on BOARD to the end or for PLAYOUT_LIMIT moves,
+     *  choosing moves with RANDOM and using MOVES as scratch space, and
+     *  return the winner, or null if there is none.  A side with no
+     *  legal moves loses. */
+    private static Piece playout(Board board, Random random, Move[] moves) {
+        for (int k = 0; board.winner() == null; k += 1) {
+            if (k == PLAYOUT_LIMIT) {
+                return null;
+            }
+            Piece turn = board.turn();
+            int n = board.legalMoves(turn, moves);
+            if (n == 0) {
+                return turn.opponent();
+            }
+            board.makeMove(playoutMove(board, moves, n, random));
+        }
+        return board.winner();
+    }
+
+    /** Return the move chosen by a playout from the N legal MOVES on
+     *  BOARD, using RANDOM: a king move to the edge if there is one, and
+     *  otherwise the first capture among PLAYOUT_SAMPLES random moves,
+     *  or the last of them if none is a capture. */
+    private static Move playoutMove(Board board, Move[] moves, int n,
+                                    Random random) {
+        if (board.turn() == WHITE) {
+            Square king = board.kingPosition();
+            for (int k = 0; k < n; k += 1) {
+                if (moves[k].from() == king && moves[k].to().isEdge()) {
+                    return moves[k];
+                }
+            }
+        }
+        Move move = null;
+        for (int k = 0; k < PLAYOUT_SAMPLES; k += 1) {
+            move = moves[random.nextInt(n)];
+            if (board.isCapture(move)) {
+                break;
+            }
+        }
+        return move;
+    }
+
+    /** One thread's share of a search. */
+    private class Worker implements Runnable {
+
+        /** A worker searching from a copy of BOARD with random numbers
+         *  seeded by SEED, until REMAINING (shared by all workers) runs
+         *  out of playouts or the time reaches DEADLINE. */
+        Worker(Board board, long seed, AtomicLong remaining,
+               long deadline) {
+            _board = new Board(board);
+            _random = new Random(seed);
+            _remaining = remaining;
+            _deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            while (_remaining.getAndDecrement() > 0) {
+                if (_playouts % TIME_CHECK_INTERVAL == 0
+                    && _playouts > 0
+                    && System.currentTimeMillis() >= _deadline) {
+                    break;
+                }
+                iterate();
+                _playouts += 1;
+            }
+        }
+
+        /** Descend from the root to a leaf, expand it, play out the game
+         *  from there, and record the result on the path, leaving _board
+         *  as it was. */
+        private void iterate() {
+            Board board = _board;
+            int start = board.moveCount();
+            Piece rootTurn = board.turn();
+            int node = _root, depth = 0;
+            _path[0] = node;
+            while (board.winner() == null) {
+                if (_firstChild.get(node) <= 0
+                    && !((node == _root || _visits.get(node) > 0)
+                         && expand(node, board, _moves))) {
+                    break;
+                }
+                node = select(node);
+                _virtual.incrementAndGet(node);
+                Piece mover = board.turn();
+                board.makeMove(Move.mv(_move[node]));
+                if (board.winner() == mover) {
+                    _firstChild.compareAndSet(node, 0, WON);
+                }
+                depth += 1;
+                if (depth == _path.length) {
+                    _path = Arrays.copyOf(_path, 2 * depth);
+                }
+                _path[depth] = node;
+                if (_visits.get(node) == 0) {
+                    break;
+                }
+            }
+            Piece winner = playout(board, _random, _moves);
+            while (board.moveCount() > start) {
+                board.undo();
+            }
+            for (int d = depth; d > 0; d -= 1) {
+                Piece mover = d % 2 == 1 ? rootTurn : rootTurn.opponent();
+                int n = _path[d];
+                _score.addAndGet(n, winner == null ? 1
+                                 : winner == mover ? 2 : 0);
+                _visits.incrementAndGet(n);
+                _virtual.decrementAndGet(n);
+            }
+            _visits.incrementAndGet(_root);
+        }
+
+        /** The position searched, restored after each iteration. */
+        private final Board _board;
+        /** Source of the playouts' moves. */
+        private final Random _random;
+        /** Number of playouts left to the search as a whole. */
+        private final AtomicLong _remaining;
+        /** Time at which to stop. */
+        private final long _deadline;
+        /** Scratch space for legal moves. */
+        private final Move[] _moves = new Move[Board.MAX_MOVES];
+        /** The nodes on the path from the root in the current
+         *  iteration. */
+        private int[] _path = new int[64];
+        /** Number of playouts I have made. */
+        private long _playouts;
+    }
+
+    /** Size of each player's tree, in megabytes. */
+    private final int _megabytes;
+    /** Pool whose threads search together, or null to search with the
+     *  calling thread alone. */
+    private final ForkJoinPool _pool;
+    /** Number of threads searching. */
+    private final int _threads;
+    /** Source of the workers' random seeds. */
+    private final Random _random = new Random();
+
+    /** Number of nodes my tree can hold. */
+    private int _capacity;
+    /** Number of nodes allocated (possibly more than _capacity while a
+     *  failed expansion is being undone). */
+    private final AtomicInteger _size = new AtomicInteger();
+    /** True once an expansion has failed for lack of room. */
+    private volatile boolean _full;
+    /** Number of playouts through each node. */
+    private AtomicIntegerArray _visits;
+    /** Twice the number of wins, plus the number of draws, for the side
+     *  that made the move leading to each node, over its playouts. */
+    private AtomicIntegerArray _score;
+    /** Number of threads currently searching below each node. */
+    private AtomicIntegerArray _virtual;
+    /** The first child of each node, 0 if it has not been expanded,
+     *  EXPANDING, or WON. */
+    private AtomicIntegerArray _firstChild;
+    /** The code (see Move.code) of the move leading to each node. */
+    private short[] _move;
+    /** The number of children of each expanded node. */
+    private short[] _childCount;
+    /** The root of the last search. */
+    private int _root;
+    /** The position at the root of the last search, or null if there
+     *  has been none. */
+    private Board _rootBoard;
+    /** Visits through the root of the current search made by earlier
+     *  searches. */
+    private int _reusedVisits;
+    /** Number of playouts made by the last search. */
+    private long _playouts;
+    /** The most-visited line found by the last search. */
+    private List<Move> _principalVariation = new ArrayList<>();
+}
@@ -1,12 +1,18 @@
 package tablut;
 
 import java.util.List;
+import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 import static tablut.Utils.error;
+import static tablut.Utils.intOption;
+import static tablut.Utils.longOption;
+import static tablut.Utils.usage;
 
 import ucb.util.CommandArgs;
 
@@ -15,16 +21,36 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
+    /** Command-line usage. */
+    private static final String USAGE =
+        "java tablut.Main [--display] [--log=FILE] [--strict] [--ponder]"
+        + " [--tt=MB] [--movetime=MS] [--threads=N] [--weights=FILE]"
+        + " [--book=FILE] [--tablebase=FILE] [--engine=NAME] [--tree=MB]"
+        + " [--record=FILE] [--analyze=FILE [--depth=D]] [INPUT [OUTPUT]]";
+
     /** The main program.  ARGS may contain the option --display. */
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --testing --strict --log={0,1} --={0,2}",
+            new CommandArgs("--display --testing --strict --ponder --log={0,1}"
+                            + " --tt={0,1} --movetime={0,1} --threads={0,1}"
+                            + " --weights={0,1} --book={0,1}"
+                            + " --tablebase={0,1} --engine={0,1}"
+                            + " --tree={0,1} --record={0,1}"
+                            + " --analyze={0,1} --depth={0,1} --={0,2}",
                             args);
         if (!options.ok()) {
-            System.err.println("Usage: java tablut.Main [--display]"
-                               + " [--log=FILE] [--strict] [INPUT [OUTPUT]]");
-            System.exit(1);
+            usage(USAGE);
+        }
+
+        if (options.contains("--analyze")) {
+            try {
+                analyze(options);
+            } catch (IllegalArgumentException excp) {
+                System.err.printf("Error: %s%n", excp.getMessage());
+                usage(USAGE);
+            }
+            return;
         }
 
         List<String> files = options.get("--");
@@ -48,7 +74,13 @@ public class Main {
             }
         }
 
-        Controller control = getController(options);
+        Controller control = null;
+        try {
+            control = getController(options);
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            usage(USAGE);
+        }
         System.out.println("Tablut 61B, staff version 1.0");
 
         try {
@@ -96,7 +128,104 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer,
-                              new AI(), options.contains("--strict"));
+        int tableSize = intOption(options, "--tt", AI.DEFAULT_TABLE_SIZE,
+                                  0, TranspositionTable.maxMegabytes());
+        int threads = intOption(options, "--threads", 1, 1,
+                                Integer.MAX_VALUE);
+        AI ai = new AI(tableSize, threads, getEvaluator(options));
+        ai.setPondering(options.contains("--ponder"));
+        if (options.contains("--book")) {
+            ai.setOpeningBook(new OpeningBook(options.getFirst("--book")));
+        }
+        Tablebase tablebase = getTablebase(options);
+        ai.setTablebase(tablebase);
+        MCTS mcts =
+            new MCTS(intOption(options, "--tree", MCTS.DEFAULT_TREE_SIZE,
+                               1, Integer.MAX_VALUE),
+                     threads);
+        Player autoPlayer;
+        String engine = options.contains("--engine")
+            ? options.getFirst("--engine") : "ai";
+        switch (engine) {
+        case "ai":
+            autoPlayer = ai;
+            break;
+        case "mcts":
+            autoPlayer = mcts;
+            break;
+        default:
+            throw error("Unknown engine: %s", engine);
+        }
+        Controller control =
+            new Controller(view, log, reporter, manualPlayer, autoPlayer,
+                           options.contains("--strict"));
+        control.addEngine("ai", ai);
+        control.addEngine("mcts", mcts);
+        control.setTablebase(tablebase);
+        if (options.contains("--record")) {
+            try {
+                control.setRecord(
+                    new GameRecord.Writer(options.getFirst("--record"),
+                                          GameRecord.SCORES
+                                          | GameRecord.TIMES));
+            } catch (IOException excp) {
+                throw error("Could not open game record file");
+            }
+        }
+        control.setMoveTime(longOption(options, "--movetime",
+                                       Controller.DEFAULT_MOVE_TIME, 1,
+                                       Long.MAX_VALUE));
+        return control;
+    }
+
+    /** Analyze the positions in the file named by the --analyze option
+     *  in OPTIONS, writing the results to the standard output (see
+     *  Analyzer).  Each is searched to the depth given by --depth for the
+     *  time given by --movetime; if only --depth is given, there is no
+     *  time limit. */
+    private static void analyze(CommandArgs options) {
+        int depth = intOption(options, "--depth", AI.MAX_DEPTH, 1,
+                              AI.MAX_DEPTH);
+        long millis =
+            longOption(options, "--movetime",
+                       options.contains("--depth") ? Long.MAX_VALUE
+                       : Controller.DEFAULT_MOVE_TIME,
+                       1, Long.MAX_VALUE);
+        Analyzer analyzer =
+            new Analyzer(intOption(options, "--threads", 1, 1,
+                                   Integer.MAX_VALUE),
+                         intOption(options, "--tt", AI.DEFAULT_TABLE_SIZE,
+                                   0, TranspositionTable.maxMegabytes()),
+                         getEvaluator(options), getTablebase(options),
+                         depth, millis);
+        try (BufferedReader in =
+                 Files.newBufferedReader(
+                     Paths.get(options.getFirst("--analyze")))) {
+            analyzer.run(in, System.out);
+        } catch (IOException excp) {
+            System.err.printf("Could not read positions: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return the evaluator given by the --weights option in OPTIONS, or
+     *  the default evaluator if it is absent. */
+    private static Evaluator getEvaluator(CommandArgs options) {
+        if (options.contains("--weights")) {
+            return WeightedEvaluator.load(options.getFirst("--weights"));
+        } else {
+            return new WeightedEvaluator();
+        }
+    }
+
+    /** Return the tablebase given by the --tablebase option in OPTIONS,
+     *  or null if it is absent. */
+    private static Tablebase getTablebase(CommandArgs options) {
+        if (options.contains("--tablebase")) {
+            return new Tablebase(options.getFirst("--tablebase"));
+        } else {
+            return null;
+        }
     }
 }
@@ -19,6 +19,19 @@ import static tablut.Utils.*;
  */
 final class Move {
 
+    /** Bits used by each square index in a move code (see code). */
+    static final int SQUARE_BITS = 7;
+
+    /** A move code that denotes no move. */
+    static final int NO_MOVE = 0;
+
+    /** Flag added to the code of a move that appears to capture (see
+     *  Board.isCapture). */
+    static final int CAPTURE = 1 << (2 * SQUARE_BITS);
+
+    /** Flag added to the code of a move of the king. */
+    static final int KING_MOVE = CAPTURE << 1;
+
     /** The syntax for a move, using either forms CR-C (horizontal moves)
      *  or CR-R (vertical moves), where C is a column letter (a-i or A-I) and
      *  R is a row number (1-9). */
@@ -38,14 +51,42 @@ final class Move {
     /** Return the unique Move FROM-TO, or null if this is not a valid
      *  move. */
     static Move mv(Square from, Square to) {
-        if ((from.row() != to.row() && from.col() != to.col()) || from == to) {
+        return MOVES[from.index()][to.index()];
+    }
+
+    /** Return the unique Move denoted by CODE (see code), ignoring any
+     *  flags, or null if CODE does not denote a move. */
+    static Move mv(int code) {
+        int from = from(code), to = to(code);
+        if (from >= NUM_SQUARES || to >= NUM_SQUARES) {
             return null;
         }
+        return MOVES[from][to];
+    }
 
-        if (MOVES[from.index()][to.index()] == null) {
-            MOVES[from.index()][to.index()] = new Move(from, to);
-        }
-        return MOVES[from.index()][to.index()];
+    /** Return my code: an int holding the index of my starting square
+     *  shifted left SQUARE_BITS bits, ORed with the index of my ending
+     *  square.  Codes are never NO_MOVE, and may have CAPTURE and
+     *  KING_MOVE added as flags. */
+    int code() {
+        return _code;
+    }
+
+    /** Return the index of the starting square of the move with code
+     *  CODE. */
+    static int from(int code) {
+        return code >>> SQUARE_BITS & SQUARE_MASK;
+    }
+
+    /** Return the index of the ending square of the move with code
+     *  CODE. */
+    static int to(int code) {
+        return code & SQUARE_MASK;
+    }
+
+    /** Return CODE without its flags. */
+    static int squares(int code) {
+        return code & SQUARES_MASK;
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
@@ -92,6 +133,7 @@ final class Move {
     /** Construct the Move FROM-TO. */
     private Move(Square from, Square to) {
         _from = from; _to = to;
+        _code = from.index() << SQUARE_BITS | to.index();
         if (_from.col() == _to.col()) {
             _str = String.format("%s-%c", from, (char) to.row() + '1');
         } else {
@@ -109,7 +151,16 @@ final class Move {
         return (_from.index() << 6) + _to.index();
     }
 
-    /** The cache of all Moves created. */
+    /** Mask for one square index in a move code. */
+    private static final int SQUARE_MASK = (1 << SQUARE_BITS) - 1;
+
+    /** Mask for the square indices in a move code. */
+    private static final int SQUARES_MASK = (1 << (2 * SQUARE_BITS)) - 1;
+
+    /** All Moves, indexed by the indices of their squares, or null for
+     *  pairs of squares that are not moves.  Filled in completely when
+     *  the class is initialized, and never changed afterwards, so that
+     *  it may be read from any thread. */
     private static final Move[][] MOVES = new Move[NUM_SQUARES][NUM_SQUARES];
 
     /** ROOK_MOVES[i][d] is a list of all rook moves in direction
@@ -124,7 +175,8 @@ final class Move {
             for (int d = 0; d < 4; d += 1) {
                 MoveList L = ROOK_MOVES[i0][d] = new MoveList();
                 for (Square sq1 : ROOK_SQUARES[i0][d]) {
-                    L.add(mv(sq0, sq1));
+                    MOVES[i0][sq1.index()] = new Move(sq0, sq1);
+                    L.add(MOVES[i0][sq1.index()]);
                 }
             }
         }
@@ -132,6 +184,8 @@ final class Move {
 
     /** The components of this Move. */
     private final Square _from, _to;
+    /** My code, without flags. */
+    private final int _code;
     /** The printed form of this Move. */
     private String _str;
     /**  A utility Matcher for moves, using MOVE_PATTERN. */
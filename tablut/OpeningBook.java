@@ -0,0 +1,230 @@
+package tablut;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ucb.util.CommandArgs;
+
+import static tablut.Utils.error;
+import static tablut.Utils.intOption;
+import static tablut.Utils.usage;
+
+/** An opening book: moves played from positions near the start of the
+ *  game, weighted by the number of games they helped win.  A book is a
+ *  file holding a header and then fixed-size records, each a position
+ *  key (as from Board.key), a move, and its weight, sorted by key and
+ *  then by decreasing weight.  The file is memory-mapped rather than
+ *  read, and looked up by binary search, so that opening a book costs
+ *  nothing and a lookup touches only a few pages.  Usage:
+ *      java tablut.OpeningBook [--plies=N] [--min=M] BOOK LOG ...
+ *  writes to the file BOOK a book of the moves made by the winners of
+ *  the games in the LOGs (see GameLog) during the first N moves
+ *  (default 16) of each game, keeping moves made at least M times
+ *  (default 2) in the same position.
+ *  @author Sameer Varma
+ */
+public class OpeningBook {
+
+    /** Command-line usage. */
+    private static final String USAGE =
+        "java tablut.OpeningBook [--plies=N] [--min=M] BOOK LOG ...";
+
+    /** Default number of moves of each game recorded. */
+    private static final int DEFAULT_PLIES = 16;
+
+    /** Default number of times a move must have been made. */
+    private static final int DEFAULT_MINIMUM = 2;
+
+    /** First four bytes of a book file. */
+    private static final int MAGIC = 0x54424B32;
+
+    /** Size of the header: MAGIC. */
+    private static final int HEADER_SIZE = 4;
+
+    /** Size of a record: a long key, a short move code (see Move.code),
+     *  and an int weight. */
+    private static final int RECORD_SIZE = 14;
+
+    /** Build a book as described by ARGS. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--plies={0,1} --min={0,1} --={2,}", args);
+        if (!options.ok()) {
+            usage(USAGE);
+        }
+        int plies, minimum;
+        try {
+            plies = intOption(options, "--plies", DEFAULT_PLIES, 0,
+                              Integer.MAX_VALUE);
+            minimum = intOption(options, "--min", DEFAULT_MINIMUM, 1,
+                                Integer.MAX_VALUE);
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            usage(USAGE);
+            return;
+        }
+        List<String> files = options.get("--");
+        Map<Long, Map<Move, Integer>> counts = new HashMap<>();
+        try {
+            for (String log : files.subList(1, files.size())) {
+                try (GameLog games = new GameLog(log)) {
+                    while (games.next()) {
+                        count(games.moves(), games.winner(), plies, counts);
+                    }
+                }
+            }
+            int size = write(files.get(0), counts, minimum);
+            System.out.printf("%d moves from %d positions%n", size,
+                              counts.size());
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** The book in the file FILENAME. */
+    OpeningBook(String fileName) {
+        try (FileChannel channel =
+                 FileChannel.open(Paths.get(fileName),
+                                  StandardOpenOption.READ)) {
+            _records = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                   channel.size());
+        } catch (IOException excp) {
+            throw error("could not read opening book: %s",
+                        excp.getMessage());
+        }
+        int length = _records.capacity();
+        if (length < HEADER_SIZE || _records.getInt(0) != MAGIC
+            || (length - HEADER_SIZE) % RECORD_SIZE != 0) {
+            throw error("not an opening book: %s", fileName);
+        }
+        _size = (length - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    /** Return the most heavily weighted book move that is legal on
+     *  BOARD, or null if there is none. */
+    Move move(Board board) {
+        if (board.winner() != null) {
+            return null;
+        }
+        long key = board.key();
+        for (int k = find(key); k < _size && key(k) == key; k += 1) {
+            Move move = move(k);
+            if (move != null && board.isLegal(move)) {
+                return move;
+            }
+        }
+        return null;
+    }
+
+    /** Return the book moves for BOARD, most heavily weighted first. */
+    List<Move> moves(Board board) {
+        List<Move> result = new ArrayList<>();
+        long key = board.key();
+        for (int k = find(key); k < _size && key(k) == key; k += 1) {
+            Move move = move(k);
+            if (move != null && board.isLegal(move)) {
+                result.add(move);
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of moves in this book. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the index of the first record whose key is not less than
+     *  KEY, or _size if there is none. */
+    private int find(long key) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the key of record K. */
+    private long key(int k) {
+        return _records.getLong(HEADER_SIZE + k * RECORD_SIZE);
+    }
+
+    /** Return the move of record K, or null if it is invalid. */
+    private Move move(int k) {
+        return Move.mv(_records.getShort(HEADER_SIZE + k * RECORD_SIZE + 8));
+    }
+
+    /** Add to COUNTS, a map from position keys to the number of times
+     *  each move was made in that position, the moves made by WINNER
+     *  among the first PLIES of MOVES. */
+    static void count(List<Move> moves, Piece winner, int plies,
+                      Map<Long, Map<Move, Integer>> counts) {
+        Board board = new Board();
+        for (int k = 0; k < Math.min(plies, moves.size()); k += 1) {
+            if (board.turn() == winner) {
+                counts.computeIfAbsent(board.key(), x -> new HashMap<>())
+                    .merge(moves.get(k), 1, Integer::sum);
+            }
+            board.makeMove(moves.get(k));
+        }
+    }
+
+    /** Write to the file FILENAME a book of the moves in COUNTS (as for
+     *  count) that were made at least MINIMUM times.  Returns the number
+     *  of moves written. */
+    static int write(String fileName, Map<Long, Map<Move, Integer>> counts,
+                     int minimum) throws IOException {
+        List<long[]> records = new ArrayList<>();
+        for (Map.Entry<Long, Map<Move, Integer>> position
+                 : counts.entrySet()) {
+            for (Map.Entry<Move, Integer> move
+                     : position.getValue().entrySet()) {
+                if (move.getValue() >= minimum) {
+                    records.add(new long[] { position.getKey(),
+                                             move.getValue(),
+                                             move.getKey().code() });
+                }
+            }
+        }
+        Collections.sort(records, (r0, r1) -> {
+            int c = Long.compare(r0[0], r1[0]);
+            if (c == 0) {
+                c = Long.compare(r1[1], r0[1]);
+            }
+            return c != 0 ? c : Long.compare(r0[2], r1[2]);
+        });
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     Files.newOutputStream(Paths.get(fileName))))) {
+            out.writeInt(MAGIC);
+            for (long[] record : records) {
+                out.writeLong(record[0]);
+                out.writeShort((int) record[2]);
+                out.writeInt((int) record[1]);
+            }
+        }
+        return records.size();
+    }
+
+    /** The mapped book file. */
+    private final ByteBuffer _records;
+    /** Number of records in _records. */
+    private final int _size;
+}
@@ -0,0 +1,131 @@
+package tablut;
+
+import java.io.PrintStream;
+
+/** Counts the leaf nodes of the tree of legal moves to a fixed depth
+ *  ("perft"), as a check and benchmark for move generation.  Usage:
+ *      java tablut.Perft [divide] DEPTH [MOVE ...]
+ *  counts the leaves DEPTH moves below the position reached from the
+ *  initial board by the MOVEs, giving the count below each root move
+ *  as well if "divide" is present.
+ *  @author Sameer Varma
+ */
+public class Perft {
+
+    /** A counter for positions below BOARD, which it does not modify. */
+    Perft(Board board) {
+        _board = new Board(board);
+    }
+
+    /** Return the number of move sequences of length DEPTH from my
+     *  position.  Positions in which the game has ended have no
+     *  moves. */
+    long count(int depth) {
+        ensureBuffers(depth);
+        return count(depth, _board);
+    }
+
+    /** Print on OUT the number of leaves DEPTH moves below my position,
+     *  the time taken, and the nodes per second, preceded by the count
+     *  below each root move iff DIVIDE.  Return the total count. */
+    long report(int depth, boolean divide, PrintStream out) {
+        ensureBuffers(depth);
+        long start = System.nanoTime();
+        long total;
+        if (divide && depth > 0 && _board.winner() == null) {
+            total = 0;
+            Move[] moves = _moves[depth];
+            int n = _board.legalMoves(_board.turn(), moves);
+            for (int k = 0; k < n; k += 1) {
+                _board.makeMove(moves[k]);
+                long count = count(depth - 1, _board);
+                _board.undo();
+                out.printf("%s: %d%n", moves[k], count);
+                total += count;
+            }
+        } else {
+            total = count(depth, _board);
+        }
+        double seconds = (System.nanoTime() - start) * 1e-9;
+        out.printf("perft %d: %d nodes, %.0f ms, %.0f nodes/s%n", depth,
+                   total, seconds * 1000, seconds == 0 ? 0 : total / seconds);
+        return total;
+    }
+
+    /** Return the number of move sequences of length DEPTH from BOARD,
+     *  which is unchanged on return. */
+    private long count(int depth, Board board) {
+        if (depth == 0) {
+            return 1;
+        }
+        if (board.winner() != null) {
+            return 0;
+        }
+        Move[] moves = _moves[depth];
+        int n = board.legalMoves(board.turn(), moves);
+        if (depth == 1) {
+            return n;
+        }
+        long total = 0;
+        for (int k = 0; k < n; k += 1) {
+            board.makeMove(moves[k]);
+            total += count(depth - 1, board);
+            board.undo();
+        }
+        return total;
+    }
+
+    /** Make sure there is a move buffer for each level down to DEPTH. */
+    private void ensureBuffers(int depth) {
+        if (_moves.length <= depth) {
+            _moves = new Move[depth + 1][Board.MAX_MOVES];
+        }
+    }
+
+    /** Run perft with the options in ARGS. */
+    public static void main(String... args) {
+        int k = 0;
+        boolean divide = args.length > 0 && args[0].equals("divide");
+        if (divide) {
+            k += 1;
+        }
+        if (k >= args.length) {
+            usage();
+        }
+        int depth = 0;
+        try {
+            depth = Integer.parseInt(args[k]);
+            if (depth < 0) {
+                usage();
+            }
+        } catch (NumberFormatException excp) {
+            usage();
+        }
+        Board board = new Board();
+        try {
+            for (k += 1; k < args.length; k += 1) {
+                Move move = Move.mv(args[k]);
+                if (move == null || !board.isLegal(move)) {
+                    throw Utils.error("illegal move: %s", args[k]);
+                }
+                board.makeMove(move);
+            }
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+        new Perft(board).report(depth, divide, System.out);
+    }
+
+    /** Print a usage message and exit. */
+    private static void usage() {
+        System.err.println("Usage: java tablut.Perft [divide] DEPTH"
+                           + " [MOVE ...]");
+        System.exit(1);
+    }
+
+    /** The position counted from, modified only temporarily. */
+    private final Board _board;
+    /** Move buffers, indexed by remaining depth. */
+    private Move[][] _moves = new Move[0][];
+}
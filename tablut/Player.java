@@ -1,5 +1,8 @@
 package tablut;
 
+import java.util.Collections;
+import java.util.List;
+
 import static tablut.Utils.*;
 
 /** A generic Tablut Player.
@@ -39,6 +42,18 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Return the moves I expected to follow from the position in which
+     *  I last chose a move, starting with the move I chose.  Empty for
+     *  players that do not search. */
+    List<Move> principalVariation() {
+        return Collections.emptyList();
+    }
+
+    /** Stop any work I am doing in the background between moves, as
+     *  before I am discarded. */
+    void stopThinking() {
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
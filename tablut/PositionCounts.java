@@ -0,0 +1,131 @@
+package tablut;
+
+import java.util.Arrays;
+
+/** A multiset of 64-bit position keys.  Keys and counts are kept in
+ *  open-addressed primitive arrays, so adding, removing, and counting a
+ *  key allocate nothing except when the table has to grow.
+ *  @author Sameer Varma
+ */
+final class PositionCounts {
+
+    /** An initially empty multiset. */
+    PositionCounts() {
+        _keys = new long[INITIAL_CAPACITY];
+        _counts = new int[INITIAL_CAPACITY];
+    }
+
+    /** A copy of MODEL. */
+    PositionCounts(PositionCounts model) {
+        _keys = model._keys.clone();
+        _counts = model._counts.clone();
+        _size = model._size;
+    }
+
+    /** Return the number of times KEY has been added and not removed. */
+    int count(long key) {
+        int i = find(key);
+        return _counts[i];
+    }
+
+    /** Add one occurrence of KEY. */
+    void add(long key) {
+        int i = find(key);
+        if (_counts[i] == 0) {
+            _keys[i] = key;
+            _size += 1;
+        }
+        _counts[i] += 1;
+        if (2 * _size > _keys.length) {
+            resize(2 * _keys.length);
+        }
+    }
+
+    /** Remove one occurrence of KEY, if there is one. */
+    void remove(long key) {
+        int i = find(key);
+        if (_counts[i] == 0) {
+            return;
+        }
+        _counts[i] -= 1;
+        if (_counts[i] == 0) {
+            _size -= 1;
+            closeGap(i);
+        }
+    }
+
+    /** Remove all keys. */
+    void clear() {
+        Arrays.fill(_counts, 0);
+        _size = 0;
+    }
+
+    /** Return the slot holding KEY, or the empty slot where it would be
+     *  inserted. */
+    private int find(long key) {
+        int mask = _keys.length - 1;
+        int i = home(key, mask);
+        while (_counts[i] != 0 && _keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** Refill the just-emptied slot I by shifting back any later entries
+     *  of the same probe run that can no longer be reached. */
+    private void closeGap(int i) {
+        int mask = _keys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (_counts[j] == 0) {
+                return;
+            }
+            int h = home(_keys[j], mask);
+            boolean reachable;
+            if (i <= j) {
+                reachable = i < h && h <= j;
+            } else {
+                reachable = i < h || h <= j;
+            }
+            if (!reachable) {
+                _keys[i] = _keys[j];
+                _counts[i] = _counts[j];
+                _counts[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    /** Rehash all entries into tables of size CAPACITY. */
+    private void resize(int capacity) {
+        long[] keys = _keys;
+        int[] counts = _counts;
+        _keys = new long[capacity];
+        _counts = new int[capacity];
+        for (int k = 0; k < keys.length; k += 1) {
+            if (counts[k] != 0) {
+                int i = find(keys[k]);
+                _keys[i] = keys[k];
+                _counts[i] = counts[k];
+            }
+        }
+    }
+
+    /** Return the first slot to probe for KEY in a table with index
+     *  mask MASK. */
+    private static int home(long key, int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    /** Initial number of slots (a power of 2). */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** The keys in each slot. */
+    private long[] _keys;
+    /** The number of occurrences of each slot's key, 0 for an empty
+     *  slot. */
+    private int[] _counts;
+    /** Number of distinct keys present. */
+    private int _size;
+}
@@ -0,0 +1,126 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Measures how AI search speed scales with the number of search threads,
+ *  using a fixed set of positions.  Usage:
+ *      java tablut.SearchBenchmark [MAXTHREADS [DEPTH [POSITIONS]]]
+ *  searches each position to DEPTH levels with 1, 2, 4, ... up to
+ *  MAXTHREADS threads (and with MAXTHREADS itself, if that is not a
+ *  power of 2) and prints nodes per second for each.  An untimed
+ *  single-threaded pass over the positions comes first, so that the
+ *  measurements do not include warming up the JIT compiler.
+ *  @author Sameer Varma
+ */
+public class SearchBenchmark {
+
+    /** Default search depth. */
+    private static final int DEFAULT_DEPTH = 4;
+
+    /** Default number of positions. */
+    private static final int DEFAULT_POSITIONS = 8;
+
+    /** Transposition table size for each run, in megabytes. */
+    private static final int TABLE_SIZE = 64;
+
+    /** Seed for the moves that produce the benchmark positions. */
+    private static final long SEED = 61;
+
+    /** Run the benchmark with the options in ARGS. */
+    public static void main(String... args) {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int depth = DEFAULT_DEPTH;
+        int count = DEFAULT_POSITIONS;
+        try {
+            if (args.length > 0) {
+                maxThreads = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                depth = Integer.parseInt(args[1]);
+            }
+            if (args.length > 2) {
+                count = Integer.parseInt(args[2]);
+            }
+        } catch (NumberFormatException excp) {
+            usage();
+        }
+        if (maxThreads < 1 || depth < 1 || count < 1) {
+            usage();
+        }
+
+        List<Board> positions = positions(count);
+        System.out.printf("%d positions, depth %d%n", positions.size(),
+                          depth);
+        System.out.printf("%8s %12s %10s %12s %8s%n",
+                          "threads", "nodes", "ms", "nodes/s", "speedup");
+        search(positions, depth, 1);
+        double base = 0;
+        for (int threads : threadCounts(maxThreads)) {
+            long start = System.nanoTime();
+            long nodes = search(positions, depth, threads);
+            double seconds = (System.nanoTime() - start) * 1e-9;
+            double rate = nodes / seconds;
+            if (threads == 1) {
+                base = rate;
+            }
+            System.out.printf("%8d %12d %10.0f %12.0f %8.2f%n", threads,
+                              nodes, seconds * 1000, rate, rate / base);
+        }
+    }
+
+    /** Print a usage message and exit. */
+    private static void usage() {
+        System.err.println("Usage: java tablut.SearchBenchmark"
+                           + " [MAXTHREADS [DEPTH [POSITIONS]]]");
+        System.exit(1);
+    }
+
+    /** Return the thread counts to measure: 1, 2, 4, ... below
+     *  MAXTHREADS, followed by MAXTHREADS itself. */
+    static List<Integer> threadCounts(int maxThreads) {
+        List<Integer> result = new ArrayList<>();
+        for (long threads = 1; threads < maxThreads; threads *= 2) {
+            result.add((int) threads);
+        }
+        result.add(maxThreads);
+        return result;
+    }
+
+    /** Search each of POSITIONS to DEPTH levels with a new AI using
+     *  THREADS threads, and return the number of nodes searched. */
+    private static long search(List<Board> positions, int depth,
+                               int threads) {
+        AI ai = new AI(TABLE_SIZE, threads);
+        try {
+            long nodes = 0;
+            for (Board board : positions) {
+                ai.findMove(board, depth, Long.MAX_VALUE);
+                nodes += ai.nodes();
+            }
+            return nodes;
+        } finally {
+            ai.shutdown();
+        }
+    }
+
+    /** Return COUNT positions reached by pseudo-random play from the
+     *  initial position, the same on every run. */
+    static List<Board> positions(int count) {
+        Random random = new Random(SEED);
+        List<Board> result = new ArrayList<>();
+        while (result.size() < count) {
+            Board board = new Board();
+            int length = 10 + random.nextInt(30);
+            for (int k = 0; k < length && board.winner() == null; k += 1) {
+                List<Move> moves = board.legalMoves(board.turn());
+                board.makeMove(moves.get(random.nextInt(moves.size())));
+            }
+            if (board.winner() == null) {
+                result.add(board);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+package tablut;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Statistics describing one search for a move: named counts and
+ *  measurements, kept in the order they were added, for the structured
+ *  "stats" lines of game logs (see Controller.reportStatistics), which
+ *  have the form
+ *      # stats player=COLOR NAME=VALUE ...
+ *  The counters that searches keep only to fill in these statistics are
+ *  maintained only when ENABLED.
+ *  @author Sameer Varma
+ */
+final class SearchStats {
+
+    /** True iff searches maintain their statistical counters.  Set by
+     *  the system property tablut.stats (false unless it is "true").
+     *  This is not a compile-time constant, so javac keeps the tests of
+     *  it; the JIT compiler, which treats it as a constant once the
+     *  class is initialized, is what removes the guarded counting. */
+    static final boolean ENABLED =
+        Boolean.parseBoolean(System.getProperty("tablut.stats", "false"));
+
+    /** Statistics of a search by PLAYER (WHITE or BLACK). */
+    SearchStats(Piece player) {
+        _player = player;
+    }
+
+    /** Return the side that searched. */
+    Piece player() {
+        return _player;
+    }
+
+    /** Record that the count NAME had the value VALUE.  Returns this. */
+    SearchStats add(String name, long value) {
+        _values.put(name, value);
+        return this;
+    }
+
+    /** Record that the measurement NAME had the value VALUE.  Returns
+     *  this. */
+    SearchStats add(String name, double value) {
+        _values.put(name, value);
+        return this;
+    }
+
+    /** Return the value recorded for NAME, or null if there is none. */
+    Number get(String name) {
+        return _values.get(name);
+    }
+
+    /** Return my values as a space-separated list of NAME=VALUE pairs,
+     *  starting with the player. */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("player=");
+        result.append(_player.toName().toLowerCase());
+        for (Map.Entry<String, Number> entry : _values.entrySet()) {
+            result.append(' ').append(entry.getKey()).append('=');
+            Number value = entry.getValue();
+            if (value instanceof Double) {
+                result.append(String.format("%.2f", value));
+            } else {
+                result.append(value);
+            }
+        }
+        return result.toString();
+    }
+
+    /** The side that searched. */
+    private final Piece _player;
+    /** The values, by name. */
+    private final Map<String, Number> _values = new LinkedHashMap<>();
+}
@@ -0,0 +1,245 @@
+package tablut;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static tablut.Piece.*;
+import static tablut.Square.*;
+import static tablut.Utils.error;
+
+/** Endgame tablebases: the exact value of every position with the king
+ *  and a few other pieces, as computed by TablebaseGenerator.  A
+ *  tablebase file holds one table for each number of white and black
+ *  pieces (besides the king) that it covers, each a byte per position
+ *  (see index) giving the result for the side to move and the number
+ *  of moves it takes.  Values assume that neither repetition nor the
+ *  move limit ends the game.  Each table is memory-mapped rather than
+ *  read, so opening a tablebase costs nothing and a probe touches one
+ *  page.
+ *  @author Sameer Varma
+ */
+class Tablebase {
+
+    /** Value of a position that is drawn (neither side can force a
+     *  win) or not a legal position. */
+    static final int DRAW = 0;
+
+    /** Result of probe for a position not in the tablebase. */
+    static final int MISSING = Integer.MIN_VALUE;
+
+    /** Largest number of moves to the end of the game that a table can
+     *  record. */
+    static final int MAX_DISTANCE = 126;
+
+    /** First four bytes of a tablebase file. */
+    static final int MAGIC = 0x54544231;
+
+    /** Most white or black pieces (besides the king) in a table. */
+    static final int MAX_PIECES = 4;
+
+    /** Size of the scratch arrays passed to probe: enough for the
+     *  squares of the king and of MAX_PIECES pieces on each side. */
+    static final int PROBE_SQUARES = 1 + 2 * MAX_PIECES;
+
+    /** Size of the header of a tablebase file: MAGIC, the number of
+     *  tables, and room for the numbers of white and black pieces of
+     *  each.  The tables follow in the order listed. */
+    static final int HEADER_SIZE =
+        8 + 8 * (MAX_PIECES + 1) * (MAX_PIECES + 1);
+
+    /** The tablebase in the file FILENAME. */
+    Tablebase(String fileName) {
+        _tables = new ByteBuffer[MAX_PIECES + 1][MAX_PIECES + 1];
+        try (FileChannel channel =
+                 FileChannel.open(Paths.get(fileName),
+                                  StandardOpenOption.READ)) {
+            ByteBuffer header =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                            Math.min(channel.size(), HEADER_SIZE));
+            if (header.limit() < 8 || header.getInt(0) != MAGIC) {
+                throw error("not a tablebase: %s", fileName);
+            }
+            int count = header.getInt(4);
+            if (count < 0 || count > (MAX_PIECES + 1) * (MAX_PIECES + 1)) {
+                throw error("bad tablebase: %s", fileName);
+            }
+            long offset = HEADER_SIZE;
+            for (int k = 0; k < count; k += 1) {
+                int white = header.getInt(8 + 8 * k),
+                    black = header.getInt(12 + 8 * k);
+                if (white < 0 || white > MAX_PIECES || black < 0
+                    || black > MAX_PIECES) {
+                    throw error("bad tablebase: %s", fileName);
+                }
+                long size = tableSize(white, black);
+                _tables[white][black] =
+                    channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+                offset += size;
+                _maxWhite = Math.max(_maxWhite, white);
+                _maxBlack = Math.max(_maxBlack, black);
+            }
+        } catch (IOException excp) {
+            throw error("could not read tablebase: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the value of BOARD for the side to move (see isWin,
+     *  isLoss, and distance), DRAW, or MISSING if it is not in this
+     *  tablebase. */
+    int probe(Board board) {
+        return probe(board, new int[PROBE_SQUARES]);
+    }
+
+    /** Return the value of BOARD as for probe(BOARD), using SQUARES,
+     *  which has PROBE_SQUARES elements, as scratch space, so that
+     *  probing allocates nothing. */
+    int probe(Board board, int[] squares) {
+        int white = board.pieceCount(WHITE), black = board.pieceCount(BLACK);
+        if (white > _maxWhite || black > _maxBlack
+            || board.kingPosition() == null
+            || _tables[white][black] == null) {
+            return MISSING;
+        }
+        return _tables[white][black].get((int) index(board, squares));
+    }
+
+    /** Return true iff VALUE, as returned by probe, is a win for the side
+     *  to move. */
+    static boolean isWin(int value) {
+        return value > 0 && value != MISSING;
+    }
+
+    /** Return true iff VALUE, as returned by probe, is a loss for the
+     *  side to move. */
+    static boolean isLoss(int value) {
+        return value < 0 && value != MISSING;
+    }
+
+    /** Return the number of moves until the game ends with best play in
+     *  a position with the won or lost VALUE. */
+    static int distance(int value) {
+        return value > 0 ? value : -value - 1;
+    }
+
+    /** Return the value of a win for the side to move in DISTANCE
+     *  moves. */
+    static int win(int distance) {
+        return distance;
+    }
+
+    /** Return the value of a loss for the side to move in DISTANCE
+     *  moves. */
+    static int loss(int distance) {
+        return -distance - 1;
+    }
+
+    /** Return a description of VALUE, as returned by probe, for a
+     *  position with TURN to move. */
+    static String describe(int value, Piece turn) {
+        if (value == MISSING) {
+            return "not in tablebase";
+        } else if (value == DRAW) {
+            return "no forced win";
+        }
+        Piece winner = isWin(value) ? turn : turn.opponent();
+        return String.format("%s wins in %d moves", winner.toName(),
+                             distance(value));
+    }
+
+    /** Return the number of positions in the table for WHITE white and
+     *  BLACK black pieces, besides the king. */
+    static long tableSize(int white, int black) {
+        return 2L * NUM_SQUARES * CHOOSE[NUM_SQUARES][white]
+            * CHOOSE[NUM_SQUARES][black];
+    }
+
+    /** Return the index in its table of the position on BOARD, using
+     *  SQUARES, whose length must be one more than the number of white
+     *  and black pieces, as scratch space. */
+    static long index(Board board, int[] squares) {
+        squares[0] = board.kingPosition().index();
+        int white = board.squares(WHITE, squares, 1);
+        int black = board.squares(BLACK, squares, 1 + white);
+        return index(board.turn(), squares, white, black);
+    }
+
+    /** Return the index of the position with TURN to move, the king on
+     *  the square with index SQUARES[0], WHITE white pieces on the
+     *  squares with indices SQUARES[1 .. WHITE], and BLACK black pieces
+     *  on the squares with indices following those.  The white and
+     *  black squares are each in increasing order.  The index packs
+     *  the side to move, the king's square, and the positions of the
+     *  white and of the black pieces among the combinations of their
+     *  number of squares. */
+    static long index(Piece turn, int[] squares, int white, int black) {
+        long index = (turn == WHITE ? NUM_SQUARES : 0) + squares[0];
+        index = index * CHOOSE[NUM_SQUARES][white]
+            + rank(squares, 1, white);
+        return index * CHOOSE[NUM_SQUARES][black]
+            + rank(squares, 1 + white, black);
+    }
+
+    /** Store in SQUARES the squares of the position with index INDEX in
+     *  the table for WHITE white and BLACK black pieces, as for index,
+     *  and return its side to move.  The squares may overlap, in which
+     *  case the index does not denote a legal position. */
+    static Piece position(long index, int white, int black,
+                          int[] squares) {
+        long blackCombinations = CHOOSE[NUM_SQUARES][black],
+            whiteCombinations = CHOOSE[NUM_SQUARES][white];
+        unrank(index % blackCombinations, squares, 1 + white, black);
+        index /= blackCombinations;
+        unrank(index % whiteCombinations, squares, 1, white);
+        index /= whiteCombinations;
+        squares[0] = (int) (index % NUM_SQUARES);
+        return index < NUM_SQUARES ? BLACK : WHITE;
+    }
+
+    /** Return the rank of the increasing square indices SQUARES[START
+     *  .. START + N - 1] among all combinations of N squares, in the
+     *  combinatorial number system. */
+    private static long rank(int[] squares, int start, int n) {
+        long rank = 0;
+        for (int i = 0; i < n; i += 1) {
+            rank += CHOOSE[squares[start + i]][i + 1];
+        }
+        return rank;
+    }
+
+    /** Store in SQUARES[START .. START + N - 1] the increasing square
+     *  indices of the combination of N squares of rank RANK. */
+    private static void unrank(long rank, int[] squares, int start, int n) {
+        int s = NUM_SQUARES - 1;
+        for (int i = n; i > 0; i -= 1) {
+            while (CHOOSE[s][i] > rank) {
+                s -= 1;
+            }
+            squares[start + i - 1] = s;
+            rank -= CHOOSE[s][i];
+            s -= 1;
+        }
+    }
+
+    /** CHOOSE[n][k] is the number of combinations of k of n things. */
+    private static final long[][] CHOOSE =
+        new long[NUM_SQUARES + 1][MAX_PIECES + 1];
+
+    static {
+        for (int n = 0; n <= NUM_SQUARES; n += 1) {
+            CHOOSE[n][0] = 1;
+            for (int k = 1; k <= MAX_PIECES; k += 1) {
+                CHOOSE[n][k] = n == 0 ? 0 : CHOOSE[n - 1][k - 1]
+                    + CHOOSE[n - 1][k];
+            }
+        }
+    }
+
+    /** The tables, indexed by the numbers of white and black pieces, or
+     *  null where absent. */
+    private final ByteBuffer[][] _tables;
+    /** Most white and black pieces in any of my tables. */
+    private int _maxWhite, _maxBlack;
+}
@@ -0,0 +1,426 @@
+package tablut;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import ucb.util.CommandArgs;
+
+import static tablut.Piece.*;
+import static tablut.Square.*;
+import static tablut.Tablebase.MAX_DISTANCE;
+import static tablut.Tablebase.MAX_PIECES;
+import static tablut.Utils.error;
+import static tablut.Utils.intOption;
+import static tablut.Utils.usage;
+
+/** Builds endgame tablebases by retrograde analysis.  Usage:
+ *      java tablut.TablebaseGenerator [--white=N] [--black=M] FILE
+ *  writes to FILE a Tablebase of every position with the king, at most
+ *  N white pieces (default 1), and at most M black pieces (default 1).
+ *  Tables are built in order of increasing numbers of pieces, so that
+ *  the positions reached by captures have already been solved.  For
+ *  each table, one pass generates the moves from every position,
+ *  settling those with immediate wins and counting the moves that stay
+ *  in the table.  Settled positions are then processed in order of
+ *  increasing distance to the end of the game: each one's predecessors
+ *  are found by unmaking moves, and either win (when the settled
+ *  position is lost) or have one fewer unsettled move, becoming lost
+ *  when none remain.  Positions never settled are draws.  The first
+ *  pass and the search for the predecessors of the positions settled
+ *  at each distance run in parallel on all processors.
+ *  @author Sameer Varma
+ */
+public class TablebaseGenerator {
+
+    /** Command-line usage. */
+    private static final String USAGE =
+        "java tablut.TablebaseGenerator [--white=N] [--black=M] FILE";
+
+    /** Default most white and black pieces besides the king. */
+    private static final int DEFAULT_WHITE = 1, DEFAULT_BLACK = 1;
+
+    /** Offsets of the columns and rows of adjacent squares in each
+     *  direction. */
+    private static final int[] DCOL = { 0, 1, 0, -1 },
+        DROW = { 1, 0, -1, 0 };
+
+    /** Build the tablebase described by ARGS. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--white={0,1} --black={0,1} --={1}", args);
+        if (!options.ok()) {
+            usage(USAGE);
+        }
+        int white, black;
+        try {
+            white = intOption(options, "--white", DEFAULT_WHITE, 0,
+                              MAX_PIECES);
+            black = intOption(options, "--black", DEFAULT_BLACK, 0,
+                              MAX_PIECES);
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            usage(USAGE);
+            return;
+        }
+        TablebaseGenerator generator = new TablebaseGenerator();
+        try {
+            for (int total = 0; total <= white + black; total += 1) {
+                for (int w = Math.max(0, total - black);
+                     w <= Math.min(white, total); w += 1) {
+                    long start = System.currentTimeMillis();
+                    generator.build(w, total - w);
+                    System.out.printf("%d white, %d black: %s, %d ms%n",
+                                      w, total - w,
+                                      generator.summary(w, total - w),
+                                      System.currentTimeMillis() - start);
+                }
+            }
+            generator.write(options.getFirst("--"));
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (IOException excp) {
+            System.err.printf("Could not write tablebase: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Build the table for WHITE white and BLACK black pieces, besides
+     *  the king, assuming that all tables with fewer pieces have been
+     *  built. */
+    void build(int white, int black) {
+        long size = Tablebase.tableSize(white, black);
+        if (size > Integer.MAX_VALUE) {
+            throw error("table for %d white and %d black pieces is too"
+                        + " large", white, black);
+        }
+        _white = white;
+        _black = black;
+        int n = (int) size;
+        _values = new byte[n];
+        _settled = new boolean[n];
+        _remaining = new byte[n];
+        _winDistance = new byte[n];
+        _lossDistance = new byte[n];
+        _queues = new IntList[MAX_DISTANCE + 1];
+        for (int d = 0; d <= MAX_DISTANCE; d += 1) {
+            _queues[d] = new IntList();
+        }
+
+        IntStream.range(0, n).parallel()
+            .forEach(i -> initialize(i, _scratch.get()));
+        for (int i = 0; i < n; i += 1) {
+            if (_settled[i]) {
+                continue;
+            } else if (_winDistance[i] > 0) {
+                schedule(i, true, _winDistance[i]);
+            } else if (_remaining[i] == 0) {
+                schedule(i, false, _lossDistance[i]);
+            }
+        }
+
+        for (int d = 0; d <= MAX_DISTANCE; d += 1) {
+            IntList settled = new IntList();
+            IntList queue = _queues[d];
+            for (int k = 0; k < queue.size(); k += 1) {
+                int entry = queue.get(k), i = entry >>> 1;
+                if (!_settled[i]) {
+                    _settled[i] = true;
+                    _values[i] = (byte) ((entry & 1) == 1
+                                         ? Tablebase.win(d)
+                                         : Tablebase.loss(d));
+                    settled.add(i);
+                }
+            }
+            _queues[d] = null;
+            int[][] predecessors =
+                IntStream.range(0, settled.size()).parallel()
+                .mapToObj(k -> predecessors(settled.get(k), _scratch.get()))
+                .toArray(int[][]::new);
+            for (int k = 0; k < settled.size(); k += 1) {
+                boolean lost = Tablebase.isLoss(_values[settled.get(k)]);
+                for (int p : predecessors[k]) {
+                    if (!_settled[p]) {
+                        update(p, lost, d + 1);
+                    }
+                }
+            }
+        }
+        _tables[white][black] = _values;
+        _settled = null;
+        _remaining = _winDistance = _lossDistance = null;
+        _queues = null;
+    }
+
+    /** Return a summary of the results in the table for WHITE white and
+     *  BLACK black pieces. */
+    String summary(int white, int black) {
+        long won = 0, lost = 0, longest = 0;
+        for (byte value : _tables[white][black]) {
+            if (Tablebase.isWin(value)) {
+                won += 1;
+            } else if (Tablebase.isLoss(value)) {
+                lost += 1;
+            }
+            if (value != Tablebase.DRAW) {
+                longest = Math.max(longest, Tablebase.distance(value));
+            }
+        }
+        return String.format("%d positions, %d won, %d lost, longest %d",
+                             _tables[white][black].length, won, lost,
+                             longest);
+    }
+
+    /** Write the tables built so far to the file FILENAME, in the format
+     *  read by Tablebase. */
+    void write(String fileName) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     Files.newOutputStream(Paths.get(fileName))))) {
+            int count = 0;
+            for (byte[][] tables : _tables) {
+                for (byte[] table : tables) {
+                    count += table == null ? 0 : 1;
+                }
+            }
+            out.writeInt(Tablebase.MAGIC);
+            out.writeInt(count);
+            for (int w = 0; w <= MAX_PIECES; w += 1) {
+                for (int b = 0; b <= MAX_PIECES; b += 1) {
+                    if (_tables[w][b] != null) {
+                        out.writeInt(w);
+                        out.writeInt(b);
+                    }
+                }
+            }
+            out.write(new byte[Tablebase.HEADER_SIZE - 8 - 8 * count]);
+            for (int w = 0; w <= MAX_PIECES; w += 1) {
+                for (int b = 0; b <= MAX_PIECES; b += 1) {
+                    if (_tables[w][b] != null) {
+                        out.write(_tables[w][b]);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Examine the moves from position I of the current table, using
+     *  SCRATCH.  Settles I if it is not a legal position or the game is
+     *  over; otherwise records its shortest immediate win, if any, its
+     *  longest immediate loss, and the number of its moves whose value
+     *  is not yet known. */
+    private void initialize(int i, Scratch scratch) {
+        Board board = scratch._board;
+        Piece turn = Tablebase.position(i, _white, _black, scratch._squares);
+        if (!setUp(board, turn, scratch._squares)) {
+            _settled[i] = true;
+            return;
+        }
+        if (board.kingPosition().isEdge()) {
+            _settled[i] = true;
+            _values[i] = (byte) (turn == BLACK ? Tablebase.loss(0)
+                                 : Tablebase.DRAW);
+            return;
+        }
+        int win = 0, loss = 0, remaining = 0;
+        int n = board.legalMoves(turn, scratch._moves);
+        for (int k = 0; k < n && win != 1; k += 1) {
+            board.makeMove(scratch._moves[k]);
+            Piece winner = board.winner();
+            int white = board.pieceCount(WHITE),
+                black = board.pieceCount(BLACK);
+            if (winner == turn) {
+                win = 1;
+            } else if (winner != null) {
+                loss = Math.max(loss, 1);
+            } else if (white == _white && black == _black) {
+                remaining += 1;
+            } else {
+                int value = _tables[white][black]
+                    [(int) Tablebase.index(board, scratch._squares)];
+                int distance = Tablebase.distance(value) + 1;
+                if (Tablebase.isLoss(value)) {
+                    win = win == 0 ? distance : Math.min(win, distance);
+                } else if (Tablebase.isWin(value)) {
+                    loss = Math.max(loss, distance);
+                } else {
+                    remaining += 1;
+                }
+            }
+            board.undo();
+        }
+        _winDistance[i] = (byte) win;
+        _lossDistance[i] = (byte) loss;
+        _remaining[i] = (byte) remaining;
+    }
+
+    /** Record that unsettled position P has a move to a position settled
+     *  as LOST (for the player then to move) or won, which makes P won
+     *  or lost in DISTANCE moves. */
+    private void update(int p, boolean lost, int distance) {
+        if (lost) {
+            if (_winDistance[p] == 0 || distance < _winDistance[p]) {
+                _winDistance[p] = (byte) distance;
+                schedule(p, true, distance);
+            }
+        } else {
+            _remaining[p] -= 1;
+            _lossDistance[p] =
+                (byte) Math.max(_lossDistance[p], distance);
+            if (_remaining[p] == 0 && _winDistance[p] == 0) {
+                schedule(p, false, _lossDistance[p]);
+            }
+        }
+    }
+
+    /** Arrange for position P to be settled as a win if WON, and
+     *  otherwise a loss, in DISTANCE moves, unless settled sooner. */
+    private void schedule(int p, boolean won, int distance) {
+        if (distance > MAX_DISTANCE) {
+            throw error("a position takes more than %d moves to win",
+                        MAX_DISTANCE);
+        }
+        _queues[distance].add(p << 1 | (won ? 1 : 0));
+    }
+
+    /** Return the indices of the unsettled positions of the current table
+     *  from which some move leads, without capture, to position Q,
+     *  using SCRATCH. */
+    private int[] predecessors(int q, Scratch scratch) {
+        Board board = scratch._board;
+        int[] squares = scratch._squares;
+        Piece turn = Tablebase.position(q, _white, _black, squares);
+        Piece mover = turn.opponent();
+        int pieces = 1 + _white + _black;
+        int[] position = Arrays.copyOf(squares, pieces);
+        setUp(board, turn, position);
+        int first = mover == WHITE ? 0 : 1 + _white,
+            last = mover == WHITE ? _white : _white + _black;
+        IntList candidates = new IntList();
+        for (int j = first; j <= last; j += 1) {
+            Square to = sq(position[j]);
+            for (int d = 0; d < 4; d += 1) {
+                for (int c = to.col() + DCOL[d], r = to.row() + DROW[d];
+                     exists(c, r) && board.get(c, r) == EMPTY;
+                     c += DCOL[d], r += DROW[d]) {
+                    candidates.add(j << 8 | sq(c, r).index());
+                }
+            }
+        }
+        IntList result = new IntList();
+        for (int k = 0; k < candidates.size(); k += 1) {
+            int j = candidates.get(k) >>> 8,
+                from = candidates.get(k) & 0xff;
+            int to = position[j];
+            position[j] = from;
+            setUp(board, mover, position);
+            position[j] = to;
+            int p = (int) Tablebase.index(board, squares);
+            if (_settled[p] || !board.isLegal(sq(from), sq(to))) {
+                continue;
+            }
+            board.makeMove(sq(from), sq(to));
+            if (board.winner() == null
+                && board.pieceCount(WHITE) == _white
+                && board.pieceCount(BLACK) == _black
+                && Tablebase.index(board, squares) == q) {
+                result.add(p);
+            }
+            board.undo();
+        }
+        return result.toArray();
+    }
+
+    /** Set up BOARD with TURN to move, the king on the square with index
+     *  SQUARES[0], the current table's white pieces on the squares with
+     *  the next indices, and its black pieces on the rest.  Returns false
+     *  if two pieces would share a square. */
+    private boolean setUp(Board board, Piece turn, int[] squares) {
+        int pieces = 1 + _white + _black;
+        for (int j = 0; j < pieces; j += 1) {
+            for (int k = j + 1; k < pieces; k += 1) {
+                if (squares[j] == squares[k]) {
+                    return false;
+                }
+            }
+        }
+        board.clear(turn);
+        board.put(KING, sq(squares[0]));
+        for (int j = 1; j < pieces; j += 1) {
+            board.put(j <= _white ? WHITE : BLACK, sq(squares[j]));
+        }
+        return true;
+    }
+
+    /** Per-thread working storage. */
+    private static class Scratch {
+        /** The board on which positions are set up. */
+        private final Board _board = new Board();
+        /** Square indices of a position (see Tablebase.index). */
+        private final int[] _squares = new int[1 + 2 * MAX_PIECES];
+        /** Buffer for the moves from a position. */
+        private final Move[] _moves = new Move[Board.MAX_MOVES];
+    }
+
+    /** A growable list of ints. */
+    private static class IntList {
+        /** Add X to the end of this list. */
+        void add(int x) {
+            if (_size == _items.length) {
+                _items = Arrays.copyOf(_items, 2 * _items.length);
+            }
+            _items[_size] = x;
+            _size += 1;
+        }
+
+        /** Return item K. */
+        int get(int k) {
+            return _items[k];
+        }
+
+        /** Return the number of items. */
+        int size() {
+            return _size;
+        }
+
+        /** Return my items as an array. */
+        int[] toArray() {
+            return Arrays.copyOf(_items, _size);
+        }
+
+        /** The items, in _items[0 .. _size - 1]. */
+        private int[] _items = new int[16];
+        /** Number of items. */
+        private int _size;
+    }
+
+    /** Tables built so far, indexed by the numbers of white and black
+     *  pieces, or null where not built. */
+    private final byte[][][] _tables =
+        new byte[MAX_PIECES + 1][MAX_PIECES + 1][];
+    /** Working storage for each thread. */
+    private final ThreadLocal<Scratch> _scratch =
+        ThreadLocal.withInitial(Scratch::new);
+    /** Numbers of white and black pieces in the table being built. */
+    private int _white, _black;
+    /** Values of the positions in the table being built. */
+    private byte[] _values;
+    /** True for the positions whose values are final. */
+    private boolean[] _settled;
+    /** Number of moves from each position whose values are unknown,
+     *  modulo 256. */
+    private byte[] _remaining;
+    /** Shortest known win from each position, or 0 if none. */
+    private byte[] _winDistance;
+    /** Longest known loss from each position. */
+    private byte[] _lossDistance;
+    /** Positions waiting to be settled at each distance, each index
+     *  shifted left one with the low bit 1 for a win. */
+    private IntList[] _queues;
+}
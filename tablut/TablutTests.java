@@ -3,7 +3,13 @@ package tablut;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import ucb.junit.textui;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** Junit tests for our Tablut Board class.
  *  @author Vivant Sakore
@@ -55,6 +61,223 @@ public class TablutTests {
     }
 
 
+    /** Test. */
+    @Test
+    public void testUndoRestoresPosition() {
+        Board b = new Board();
+        String initial = b.encodedBoard();
+        b.makeMove(Move.mv("a4-3"));
+        b.makeMove(Move.mv("e4-f"));
+        b.makeMove(Move.mv("b5-3"));
+        b.makeMove(Move.mv("e5-4"));
+        String before = b.encodedBoard();
+        b.makeMove(Move.mv("b3-5"));
+        b.undo();
+        assertEquals(before, b.encodedBoard());
+        assertEquals(Piece.BLACK, b.turn());
+        assertEquals(4, b.moveCount());
+        b.undo();
+        b.undo();
+        b.undo();
+        b.undo();
+        assertEquals(initial, b.encodedBoard());
+        assertEquals(Piece.BLACK, b.turn());
+        assertNull(b.winner());
+    }
+
+    /** Test. */
+    @Test
+    public void testKeyTranspositions() {
+        Board b1 = new Board();
+        Board b2 = new Board();
+        long initial = b1.key();
+        b1.makeMove(Move.mv("a4-3"));
+        b1.makeMove(Move.mv("e3-c"));
+        b1.makeMove(Move.mv("i4-3"));
+        b2.makeMove(Move.mv("i4-3"));
+        b2.makeMove(Move.mv("e3-c"));
+        b2.makeMove(Move.mv("a4-3"));
+        assertEquals(b1.encodedBoard(), b2.encodedBoard());
+        assertEquals(b1.key(), b2.key());
+        b1.undo();
+        assertNotEquals(b1.key(), b2.key());
+        b1.undo();
+        b1.undo();
+        assertEquals(initial, b1.key());
+    }
+
+    /** Test. */
+    @Test
+    public void testTranspositionTable() {
+        TranspositionTable table = new TranspositionTable(1);
+        assertEquals(1 << 16, table.size());
+        Board b = new Board();
+        assertEquals(0, table.probe(b.key()));
+        table.store(b.key(), 3, TranspositionTable.LOWER, -17,
+                    Move.mv("i6-f").code());
+        long entry = table.probe(b.key());
+        assertEquals(3, TranspositionTable.depth(entry));
+        assertEquals(TranspositionTable.LOWER,
+                     TranspositionTable.bound(entry));
+        assertEquals(-17, TranspositionTable.score(entry));
+        assertEquals(Move.mv("i6-f"),
+                     Move.mv(TranspositionTable.move(entry)));
+        assertEquals(SearchStats.ENABLED ? 1 : 0, table.hits());
+        assertEquals(SearchStats.ENABLED ? 2 : 0, table.probes());
+    }
+
+    /** Test. */
+    @Test
+    public void testPerftInitialPosition() {
+        Perft perft = new Perft(new Board());
+        long[] expected = { 1, 80, 4400, 353200, 19913864 };
+        for (int depth = 0; depth < expected.length; depth += 1) {
+            assertEquals(expected[depth], perft.count(depth));
+        }
+    }
+
+    /** Test. */
+    @Test
+    public void testOpeningBook() throws IOException {
+        Map<Long, Map<Move, Integer>> counts = new HashMap<>();
+        List<Move> game = Arrays.asList(Move.mv("a4-3"), Move.mv("e3-c"),
+                                        Move.mv("i4-3"));
+        OpeningBook.count(game, Piece.BLACK, 16, counts);
+        OpeningBook.count(game.subList(0, 1), Piece.BLACK, 16, counts);
+        OpeningBook.count(Arrays.asList(Move.mv("i6-7")), Piece.BLACK, 16,
+                          counts);
+        File file = File.createTempFile("tablut", ".book");
+        file.deleteOnExit();
+        assertEquals(3, OpeningBook.write(file.getPath(), counts, 1));
+        OpeningBook book = new OpeningBook(file.getPath());
+        Board b = new Board();
+        assertEquals(Arrays.asList(Move.mv("a4-3"), Move.mv("i6-7")),
+                     book.moves(b));
+        assertEquals(Move.mv("a4-3"), book.move(b));
+        b.makeMove(Move.mv("a4-3"));
+        assertNull(book.move(b));
+        b.makeMove(Move.mv("e3-c"));
+        assertEquals(Move.mv("i4-3"), book.move(b));
+    }
+
+    /** Test. */
+    @Test
+    public void testTablebase() throws IOException {
+        TablebaseGenerator generator = new TablebaseGenerator();
+        generator.build(0, 0);
+        generator.build(0, 1);
+        File file = File.createTempFile("tablut", ".tb");
+        file.deleteOnExit();
+        generator.write(file.getPath());
+        Tablebase tablebase = new Tablebase(file.getPath());
+        Board b = new Board();
+        assertEquals(Tablebase.MISSING, tablebase.probe(b));
+        b.clear(Piece.WHITE);
+        b.put(Piece.KING, Square.sq("e5"));
+        b.put(Piece.BLACK, Square.sq("e6"));
+        int value = tablebase.probe(b);
+        assertTrue(Tablebase.isWin(value));
+        assertEquals(1, Tablebase.distance(value));
+        b.clear(Piece.BLACK);
+        b.put(Piece.KING, Square.sq("e5"));
+        b.put(Piece.BLACK, Square.sq("a1"));
+        value = tablebase.probe(b);
+        assertTrue(Tablebase.isLoss(value));
+        assertEquals(2, Tablebase.distance(value));
+    }
+
+    /** Test. */
+    @Test
+    public void testMCTSFindsWin() {
+        Board b = new Board();
+        b.clear(Piece.WHITE);
+        b.put(Piece.KING, Square.sq("c3"));
+        b.put(Piece.WHITE, Square.sq("e5"));
+        b.put(Piece.BLACK, Square.sq("e6"));
+        b.put(Piece.BLACK, Square.sq("f7"));
+        b.put(Piece.BLACK, Square.sq("g5"));
+        MCTS mcts = (MCTS) new MCTS(1, 1).create(Piece.WHITE, null);
+        Move move = mcts.findMove(b, 2000, Long.MAX_VALUE);
+        assertEquals(2000, mcts.playouts());
+        b.makeMove(move);
+        assertEquals(Piece.WHITE, b.winner());
+    }
+
+    /** Test. */
+    @Test
+    public void testGameRecord() throws IOException {
+        File file = File.createTempFile("tablut", ".games");
+        file.deleteOnExit();
+        List<Move> moves = Arrays.asList(Move.mv("d1-2"), Move.mv("e3-f"),
+                                         Move.mv("i4-3"));
+        try (GameRecord.Writer out =
+                 new GameRecord.Writer(file.getPath(), GameRecord.TIMES)) {
+            out.startGame(20, 5);
+            for (Move move : moves) {
+                out.addMove(move, GameRecord.NO_SCORE, 10);
+            }
+            out.addMove(Move.mv("e4-a"), GameRecord.NO_SCORE, 10);
+            out.undoMove();
+            out.endGame(Piece.BLACK, GameRecord.ALPHA_BETA,
+                        GameRecord.MANUAL);
+            out.startGame(0, 0);
+            out.endGame(null, GameRecord.MANUAL, GameRecord.MANUAL);
+        }
+        try (GameRecord.Reader in = new GameRecord.Reader(file.getPath())) {
+            assertTrue(in.next());
+            assertEquals(20, in.moveLimit());
+            assertEquals(5, in.seed());
+            assertEquals(GameRecord.ALPHA_BETA,
+                         in.playerType(Piece.WHITE));
+            assertEquals(moves, in.moves());
+            assertEquals(10, in.time(2));
+            assertEquals(GameRecord.NO_SCORE, in.score(2));
+            assertEquals(Piece.BLACK, in.winner());
+            assertTrue(in.next());
+            assertEquals(0, in.moveCount());
+            assertNull(in.winner());
+            assertFalse(in.next());
+        }
+    }
+
+    /** Test. */
+    @Test
+    public void testSetPosition() {
+        Board b = new Board();
+        b.makeMove(Move.mv("a4-3"));
+        b.makeMove(Move.mv("e4-f"));
+        Board b2 = new Board();
+        b2.setPosition(b.encodedBoard());
+        assertEquals(b.encodedBoard(), b2.encodedBoard());
+        assertEquals(b.key(), b2.key());
+        assertNull(b2.winner());
+        b2.setPosition("B" + b.encodedBoard().substring(1)
+                       .replace('K', '-'));
+        assertEquals(Piece.BLACK, b2.winner());
+    }
+
+    /** Test. */
+    @Test
+    public void testPackedPosition() {
+        Board b = new Board();
+        ByteBuffer buffer = ByteBuffer.allocate(3 * Board.POSITION_BYTES);
+        b.writePosition(buffer);
+        b.makeMove(Move.mv("a4-3"));
+        b.writePosition(buffer);
+        b.makeMove(Move.mv("e4-f"));
+        b.writePosition(buffer);
+        assertEquals(21, Board.POSITION_BYTES);
+        assertEquals(3 * 21, buffer.position());
+        buffer.flip();
+        Board b2 = new Board();
+        b2.readPosition(buffer);
+        assertEquals(new Board().encodedBoard(), b2.encodedBoard());
+        b2.readPosition(buffer);
+        b2.readPosition(buffer);
+        assertEquals(b.encodedBoard(), b2.encodedBoard());
+        assertEquals(b.key(), b2.key());
+        assertFalse(buffer.hasRemaining());
+    }
 
     private void buildBoard(Board b, Piece[][] target) {
         for (int col = 0; col < Board.SIZE; col++) {
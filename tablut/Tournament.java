@@ -0,0 +1,386 @@
+package tablut;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucb.util.CommandArgs;
+
+import static tablut.Piece.*;
+import static tablut.Utils.error;
+import static tablut.Utils.intOption;
+import static tablut.Utils.longOption;
+import static tablut.Utils.usage;
+
+/** Plays AI configurations against each other without a Controller,
+ *  several games at a time, and summarizes the results.  Usage:
+ *      java tablut.Tournament [--games=N] [--threads=N] [--seed=S]
+ *          [--random=R] [--maxmoves=N] [--csv=FILE] CONFIG CONFIG ...
+ *  Each pair of CONFIGs plays N games (default 100), alternating colors.
+ *  A CONFIG has the form NAME[:OPTION,...], where each OPTION is depth=D
+ *  (the deepest search), time=MS (milliseconds per move), tt=MB
+ *  (transposition table size), weights=FILE (evaluation weights, as for
+ *  WeightedEvaluator), book=FILE (an OpeningBook), or tablebase=FILE (a
+ *  Tablebase).  With depth but no time, searches are limited by depth
+ *  alone.  Since the AI's search is deterministic, each game starts with
+ *  R (default 2) random moves, chosen using seed S; consecutive games of
+ *  a pairing, with colors swapped, share their opening.  Games run in
+ *  parallel, one per thread (by default, one thread per processor), each
+ *  with its own Board, so games searched to a fixed depth do not depend
+ *  on scheduling.  A game still unfinished after N moves by each side
+ *  (--maxmoves, default 100) is a draw.  The summary is printed and,
+ *  with --csv, written to FILE as CSV.
+ *  @author Sameer Varma
+ */
+public class Tournament {
+
+    /** Command-line usage. */
+    private static final String USAGE =
+        "java tablut.Tournament [--games=N] [--threads=N] [--seed=S]"
+        + " [--random=R] [--maxmoves=N] [--csv=FILE] CONFIG CONFIG ...";
+
+    /** Default number of games per pairing. */
+    private static final int DEFAULT_GAMES = 100;
+
+    /** Default number of random moves that start each game. */
+    private static final int DEFAULT_RANDOM_MOVES = 2;
+
+    /** Default number of moves by each side before a game is drawn. */
+    private static final int DEFAULT_MAX_MOVES = 100;
+
+    /** Default time per move in milliseconds. */
+    private static final long DEFAULT_MOVE_TIME = 100;
+
+    /** Default transposition table size in megabytes. */
+    private static final int DEFAULT_TABLE_SIZE = 1;
+
+    /** Run a tournament as described by ARGS. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--games={0,1} --threads={0,1} --seed={0,1}"
+                            + " --random={0,1} --maxmoves={0,1} --csv={0,1}"
+                            + " --={2,}",
+                            args);
+        if (!options.ok()) {
+            usage(USAGE);
+        }
+        Tournament tournament;
+        int threads;
+        PrintStream csv = null;
+        try {
+            List<Config> configs = new ArrayList<>();
+            for (String spec : options.get("--")) {
+                configs.add(new Config(spec));
+            }
+            tournament = new Tournament(
+                configs,
+                intOption(options, "--games", DEFAULT_GAMES, 1,
+                          Integer.MAX_VALUE),
+                intOption(options, "--random", DEFAULT_RANDOM_MOVES, 0,
+                          Integer.MAX_VALUE),
+                intOption(options, "--maxmoves", DEFAULT_MAX_MOVES, 1,
+                          Integer.MAX_VALUE),
+                longOption(options, "--seed", 0, Long.MIN_VALUE,
+                           Long.MAX_VALUE));
+            threads = intOption(options, "--threads",
+                                Runtime.getRuntime().availableProcessors(),
+                                1, Integer.MAX_VALUE);
+            if (options.contains("--csv")) {
+                csv = new PrintStream(options.getFirst("--csv"));
+            }
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            usage(USAGE);
+            return;
+        } catch (FileNotFoundException excp) {
+            System.err.printf("Could not open file: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+            return;
+        }
+        tournament.run(threads);
+        tournament.report(System.out);
+        if (csv != null) {
+            tournament.writeCsv(csv);
+            csv.close();
+        }
+    }
+
+    /** A tournament in which each pair of CONFIGS plays GAMES games, each
+     *  starting with RANDOMMOVES random moves chosen using SEED and drawn
+     *  after MAXMOVES moves per side. */
+    Tournament(List<Config> configs, int games, int randomMoves,
+               int maxMoves, long seed) {
+        if (configs.size() < 2) {
+            throw error("need at least two configurations");
+        }
+        if (games <= 0 || maxMoves <= 0 || randomMoves < 0) {
+            throw error("bad game or move count");
+        }
+        _configs = configs;
+        _games = games;
+        _randomMoves = randomMoves;
+        _maxMoves = maxMoves;
+        _seed = seed;
+    }
+
+    /** Play all the games, THREADS at a time. */
+    void run(int threads) {
+        ExecutorService workers =
+            Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Game>> games = new ArrayList<>();
+        long pairing = 0;
+        for (int i = 0; i < _configs.size(); i += 1) {
+            for (int j = i + 1; j < _configs.size(); j += 1) {
+                pairing += 1;
+                for (int k = 0; k < _games; k += 1) {
+                    Config black = _configs.get(k % 2 == 0 ? i : j),
+                        white = _configs.get(k % 2 == 0 ? j : i);
+                    Game game =
+                        new Game(white, black,
+                                 _seed ^ (pairing << 32 | k / 2));
+                    games.add(workers.submit(game::play, game));
+                }
+            }
+        }
+        try {
+            for (Future<Game> game : games) {
+                game.get().record();
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalStateException(excp);
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /** Print a summary of the results on OUT. */
+    void report(PrintStream out) {
+        out.printf("%-16s %6s %6s %6s %6s %7s %8s %12s%n", "config",
+                   "games", "wins", "losses", "draws", "score", "length",
+                   "nodes/s");
+        for (Config config : _configs) {
+            out.printf("%-16s %6d %6d %6d %6d %7.3f %8.1f %12.0f%n",
+                       config._name, config._games, config._wins,
+                       config._losses, config._draws, config.score(),
+                       config.averageLength(), config.nodeRate());
+        }
+    }
+
+    /** Write a summary of the results on OUT as CSV. */
+    void writeCsv(PrintStream out) {
+        out.println("config,games,wins,losses,draws,score,average_length,"
+                    + "nodes,nodes_per_second");
+        for (Config config : _configs) {
+            out.printf("%s,%d,%d,%d,%d,%.4f,%.2f,%d,%.0f%n", config._name,
+                       config._games, config._wins, config._losses,
+                       config._draws, config.score(), config.averageLength(),
+                       config._nodes, config.nodeRate());
+        }
+    }
+
+    /** An AI configuration and its results so far. */
+    static class Config {
+
+        /** The configuration described by SPEC, of the form
+         *  NAME[:OPTION,...] (see Tournament). */
+        Config(String spec) {
+            int colon = spec.indexOf(':');
+            _name = colon < 0 ? spec : spec.substring(0, colon);
+            if (_name.isEmpty()) {
+                throw error("missing configuration name: %s", spec);
+            }
+            String[] options = new String[0];
+            if (colon >= 0) {
+                options = spec.substring(colon + 1).split(",");
+            }
+            boolean timed = false;
+            for (String option : options) {
+                String[] parts = option.split("=", 2);
+                try {
+                    if (parts.length != 2) {
+                        throw error("bad option: %s", option);
+                    }
+                    switch (parts[0]) {
+                    case "depth":
+                        _depth = Integer.parseInt(parts[1]);
+                        break;
+                    case "time":
+                        _moveTime = Long.parseLong(parts[1]);
+                        timed = true;
+                        break;
+                    case "tt":
+                        _tableSize = Integer.parseInt(parts[1]);
+                        break;
+                    case "weights":
+                        _evaluator = WeightedEvaluator.load(parts[1]);
+                        break;
+                    case "book":
+                        _book = new OpeningBook(parts[1]);
+                        break;
+                    case "tablebase":
+                        _tablebase = new Tablebase(parts[1]);
+                        break;
+                    default:
+                        throw error("unknown option: %s", parts[0]);
+                    }
+                } catch (NumberFormatException excp) {
+                    throw error("bad option: %s", option);
+                }
+            }
+            if (_depth <= 0 || _moveTime <= 0 || _tableSize < 0
+                || _tableSize > TranspositionTable.maxMegabytes()) {
+                throw error("bad options: %s", spec);
+            }
+            if (!timed && _depth < AI.MAX_DEPTH) {
+                _moveTime = Long.MAX_VALUE;
+            }
+        }
+
+        /** Return a new player for this configuration. */
+        AI player() {
+            AI player = new AI(_tableSize, 1, _evaluator);
+            player.setOpeningBook(_book);
+            player.setTablebase(_tablebase);
+            return player;
+        }
+
+        /** Return the fraction of points won, counting a draw as half a
+         *  win. */
+        double score() {
+            return _games == 0 ? 0 : (_wins + 0.5 * _draws) / _games;
+        }
+
+        /** Return the average number of moves in my games. */
+        double averageLength() {
+            return _games == 0 ? 0 : (double) _moves / _games;
+        }
+
+        /** Return the number of nodes searched per second. */
+        double nodeRate() {
+            return _nanos == 0 ? 0 : _nodes * 1e9 / _nanos;
+        }
+
+        /** My name. */
+        private final String _name;
+        /** Deepest search. */
+        private int _depth = AI.MAX_DEPTH;
+        /** Time per move in milliseconds. */
+        private long _moveTime = DEFAULT_MOVE_TIME;
+        /** Transposition table size in megabytes. */
+        private int _tableSize = DEFAULT_TABLE_SIZE;
+        /** Static evaluation used by my players. */
+        private Evaluator _evaluator = new WeightedEvaluator();
+        /** Opening book used by my players, or null if none. */
+        private OpeningBook _book;
+        /** Tablebase used by my players, or null if none. */
+        private Tablebase _tablebase;
+
+        /** Results so far.  Modified only by the thread running the
+         *  tournament. */
+        private int _games, _wins, _losses, _draws;
+        /** Total moves in my games, nodes I searched, and time I spent
+         *  searching in nanoseconds. */
+        private long _moves, _nodes, _nanos;
+    }
+
+    /** One game of the tournament. */
+    private class Game {
+
+        /** A game between configurations WHITE and BLACK whose random
+         *  opening moves are chosen using OPENINGSEED. */
+        Game(Config white, Config black, long openingSeed) {
+            _white = white;
+            _black = black;
+            _openingSeed = openingSeed;
+        }
+
+        /** Play this game to its end, or until it is drawn. */
+        void play() {
+            Board board = new Board();
+            Random random = new Random(_openingSeed);
+            for (int k = 0; k < _randomMoves && board.winner() == null;
+                 k += 1) {
+                List<Move> moves = board.legalMoves(board.turn());
+                board.makeMove(moves.get(random.nextInt(moves.size())));
+            }
+            AI white = _white.player(), black = _black.player();
+            while (board.winner() == null
+                   && board.moveCount() < 2 * _maxMoves) {
+                boolean whiteToMove = board.turn() == WHITE;
+                Config config = whiteToMove ? _white : _black;
+                AI ai = whiteToMove ? white : black;
+                long start = System.nanoTime();
+                Move move = ai.findMove(board, config._depth,
+                                        config._moveTime);
+                if (move == null) {
+                    _winner = board.turn().opponent();
+                    break;
+                }
+                long nanos = System.nanoTime() - start;
+                if (whiteToMove) {
+                    _whiteNodes += ai.nodes();
+                    _whiteNanos += nanos;
+                } else {
+                    _blackNodes += ai.nodes();
+                    _blackNanos += nanos;
+                }
+                board.makeMove(move);
+                _winner = board.winner();
+            }
+            _moves = board.moveCount();
+        }
+
+        /** Add the outcome of this game to its configurations'
+         *  results. */
+        void record() {
+            record(_white, WHITE, _whiteNodes, _whiteNanos);
+            record(_black, BLACK, _blackNodes, _blackNanos);
+        }
+
+        /** Add the outcome of this game to the results of CONFIG, which
+         *  played SIDE and searched NODES nodes in NANOS nanoseconds. */
+        private void record(Config config, Piece side, long nodes,
+                            long nanos) {
+            config._games += 1;
+            if (_winner == null) {
+                config._draws += 1;
+            } else if (_winner == side) {
+                config._wins += 1;
+            } else {
+                config._losses += 1;
+            }
+            config._moves += _moves;
+            config._nodes += nodes;
+            config._nanos += nanos;
+        }
+
+        /** The configurations playing each side. */
+        private final Config _white, _black;
+        /** Seed for the random opening moves. */
+        private final long _openingSeed;
+        /** The winner, or null for a draw. */
+        private Piece _winner;
+        /** Number of moves played. */
+        private int _moves;
+        /** Nodes searched and nanoseconds spent by each side. */
+        private long _whiteNodes, _whiteNanos, _blackNodes, _blackNanos;
+    }
+
+    /** The competing configurations. */
+    private final List<Config> _configs;
+    /** Number of games for each pair of configurations. */
+    private final int _games;
+    /** Number of random moves that start each game. */
+    private final int _randomMoves;
+    /** Number of moves by each side after which a game is drawn. */
+    private final int _maxMoves;
+    /** Seed from which the random openings are derived. */
+    private final long _seed;
+}
@@ -0,0 +1,180 @@
+package tablut;
+
+import java.util.Arrays;
+
+/** A fixed-size table of search results keyed by Board.key().  Each
+ *  entry is a packed long holding the score, bound type, search depth,
+ *  best move, and the search that stored it, so the whole table is two
+ *  primitive arrays.  The table may be shared by searches in several
+ *  threads without locking: the key is stored XORed with the entry, so
+ *  an entry torn by a concurrent store fails to match on probing (and
+ *  the statistics are then approximate).
+ *  @author Sameer Varma
+ */
+final class TranspositionTable {
+
+    /** Bound types of stored scores.  NONE marks an empty slot. */
+    static final int NONE = 0, EXACT = 1, LOWER = 2, UPPER = 3;
+
+    /** Number of bytes used by one entry. */
+    static final int ENTRY_BYTES = 2 * Long.BYTES;
+
+    /** A table using at most MEGABYTES megabytes (and at least one
+     *  entry). */
+    TranspositionTable(int megabytes) {
+        long entries = ((long) megabytes << 20) / ENTRY_BYTES;
+        int size = 1;
+        while (size < MAX_ENTRIES && 2L * size <= entries) {
+            size *= 2;
+        }
+        _keys = new long[size];
+        _data = new long[size];
+        _mask = size - 1;
+    }
+
+    /** Return the largest size in megabytes that may be requested for a
+     *  table: no more than MAX_ENTRIES entries need, and no more than
+     *  half the memory the JVM may use. */
+    static int maxMegabytes() {
+        long bytes = Math.min((long) MAX_ENTRIES * ENTRY_BYTES,
+                              Runtime.getRuntime().maxMemory() / 2);
+        return (int) (bytes >> 20);
+    }
+
+    /** Return the number of entries in this table. */
+    int size() {
+        return _keys.length;
+    }
+
+    /** Empty the table and reset its statistics. */
+    void clear() {
+        Arrays.fill(_keys, 0);
+        Arrays.fill(_data, 0);
+        _generation = 0;
+        resetStatistics();
+    }
+
+    /** Start a new search: entries from earlier searches become
+     *  preferred for replacement. */
+    void newSearch() {
+        _generation = (_generation + 1) & GENERATION_MASK;
+    }
+
+    /** Return the entry stored for KEY, or 0 (whose bound is NONE) if
+     *  there is none.  Its fields are extracted with score, bound, depth,
+     *  and move. */
+    long probe(long key) {
+        if (SearchStats.ENABLED) {
+            _probes += 1;
+        }
+        int i = (int) key & _mask;
+        long entry = _data[i];
+        if ((_keys[i] ^ entry) == key && bound(entry) != NONE) {
+            if (SearchStats.ENABLED) {
+                _hits += 1;
+            }
+            return entry;
+        }
+        return 0;
+    }
+
+    /** Return the score stored in ENTRY. */
+    static int score(long entry) {
+        return (int) entry;
+    }
+
+    /** Return the bound type stored in ENTRY. */
+    static int bound(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /** Return the search depth stored in ENTRY. */
+    static int depth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    /** Return the code (see Move.code) of the best move stored in
+     *  ENTRY, or Move.NO_MOVE if none was recorded. */
+    static int move(long entry) {
+        return (int) (entry >>> MOVE_SHIFT) & MOVE_MASK;
+    }
+
+    /** Record SCORE, of bound type BOUND, from a search of DEPTH levels
+     *  below the position with KEY, whose best move has the code MOVE
+     *  (Move.NO_MOVE if none; flags are ignored).  An existing entry for
+     *  a different position is replaced only if it is from an earlier
+     *  search or was searched no deeper. */
+    void store(long key, int depth, int bound, int score, int move) {
+        int i = (int) key & _mask;
+        long old = _data[i];
+        boolean same = (_keys[i] ^ old) == key;
+        if (!same && bound(old) != NONE
+            && generation(old) == _generation && depth(old) > depth) {
+            return;
+        }
+        int mv = Move.squares(move);
+        if (mv == Move.NO_MOVE && same) {
+            mv = move(old);
+        }
+        long entry = (score & 0xffffffffL)
+            | (long) mv << MOVE_SHIFT
+            | (long) Math.min(depth, DEPTH_MASK) << DEPTH_SHIFT
+            | (long) bound << BOUND_SHIFT
+            | (long) _generation << GENERATION_SHIFT;
+        _keys[i] = key ^ entry;
+        _data[i] = entry;
+        if (SearchStats.ENABLED) {
+            _stores += 1;
+        }
+    }
+
+    /** Return the number of probes since the last resetStatistics. */
+    long probes() {
+        return _probes;
+    }
+
+    /** Return the number of probes that found an entry since the last
+     *  resetStatistics. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of entries stored since the last
+     *  resetStatistics. */
+    long stores() {
+        return _stores;
+    }
+
+    /** Reset the probe, hit, and store counts, which are kept only if
+     *  SearchStats.ENABLED. */
+    void resetStatistics() {
+        _probes = _hits = _stores = 0;
+    }
+
+    /** Return the generation of ENTRY. */
+    private static int generation(long entry) {
+        return (int) (entry >>> GENERATION_SHIFT) & GENERATION_MASK;
+    }
+
+    /** Positions and sizes of the fields of a packed entry.  The score
+     *  occupies the low 32 bits. */
+    private static final int
+        MOVE_SHIFT = 32, MOVE_MASK = (1 << (2 * Move.SQUARE_BITS)) - 1,
+        DEPTH_SHIFT = 46, DEPTH_MASK = 0xff,
+        BOUND_SHIFT = 54, BOUND_MASK = 3,
+        GENERATION_SHIFT = 56, GENERATION_MASK = 0xff;
+
+    /** Largest number of entries in a table. */
+    private static final int MAX_ENTRIES = 1 << 30;
+
+    /** Position keys of the entries, each XORed with its entry. */
+    private final long[] _keys;
+    /** Packed contents of the entries. */
+    private final long[] _data;
+    /** Mask that reduces a key to a slot index. */
+    private final int _mask;
+    /** Generation number of the current search. */
+    private int _generation;
+    /** Statistics since the last reset. */
+    private long _probes, _hits, _stores;
+}
@@ -0,0 +1,312 @@
+package tablut;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+import ucb.util.CommandArgs;
+
+import static tablut.Piece.*;
+import static tablut.Utils.doubleOption;
+import static tablut.Utils.error;
+import static tablut.Utils.intOption;
+import static tablut.Utils.usage;
+import static tablut.WeightedEvaluator.TERMS;
+
+/** Fits the weights of WeightedEvaluator to the outcomes of recorded
+ *  games (Texel tuning).  Usage:
+ *      java tablut.Tuner [--weights=FILE] [--output=FILE]
+ *          [--iterations=N] [--rate=R] [--scale=K] LOG ...
+ *  Each LOG is a game log written by Main's --log option.  The games in
+ *  it are replayed (see GameLog), and for each game that ended in a win,
+ *  every position before a move is reduced to its features and the
+ *  winner and appended to a temporary file, so the number of positions
+ *  is limited by disk space rather than memory.  Starting from the
+ *  weights in --weights (by default, the standard weights), the tuner
+ *  then minimizes the mean squared difference between the outcome (1 for
+ *  a White win, 0 for a Black win) and 1 / (1 + exp(-K * evaluation)) by
+ *  N gradient steps (default 200), each at most R weight units (default
+ *  4) and scaled per weight as in AdaGrad.  Each step reads the file a
+ *  block at a time and evaluates every block with a parallel stream.
+ *  Unless given, K is first chosen to best fit the starting weights.
+ *  The result is written to --output (default weights.properties) in the
+ *  form read by --weights.
+ *  @author Sameer Varma
+ */
+public class Tuner {
+
+    /** Command-line usage. */
+    private static final String USAGE =
+        "java tablut.Tuner [--weights=FILE] [--output=FILE]"
+        + " [--iterations=N] [--rate=R] [--scale=K] LOG ...";
+
+    /** Default number of gradient steps. */
+    private static final int DEFAULT_ITERATIONS = 200;
+
+    /** Default largest change to a weight in one step. */
+    private static final double DEFAULT_RATE = 4;
+
+    /** Default output file. */
+    private static final String DEFAULT_OUTPUT = "weights.properties";
+
+    /** Number of bytes in a position record: the outcome, followed by
+     *  each feature as a short. */
+    private static final int RECORD_SIZE = 1 + 2 * TERMS.length;
+
+    /** Number of positions read from the position file at a time. */
+    private static final int BLOCK_POSITIONS = 1 << 16;
+
+    /** Range of scales considered when fitting the scale. */
+    private static final double MIN_SCALE = 1e-5, MAX_SCALE = 0.1;
+
+    /** Number of passes used to fit the scale. */
+    private static final int SCALE_PASSES = 30;
+
+    /** Number of steps between progress reports. */
+    private static final int REPORT_INTERVAL = 10;
+
+    /** Tune weights as described by ARGS. */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--weights={0,1} --output={0,1}"
+                            + " --iterations={0,1} --rate={0,1}"
+                            + " --scale={0,1} --={1,}",
+                            args);
+        if (!options.ok()) {
+            usage(USAGE);
+        }
+        WeightedEvaluator start;
+        int iterations;
+        double rate, scale;
+        String output;
+        try {
+            if (options.contains("--weights")) {
+                start = WeightedEvaluator.load(options.getFirst("--weights"));
+            } else {
+                start = new WeightedEvaluator();
+            }
+            iterations = intOption(options, "--iterations",
+                                   DEFAULT_ITERATIONS, 0, Integer.MAX_VALUE);
+            rate = doubleOption(options, "--rate", DEFAULT_RATE, 0,
+                                Double.MAX_VALUE);
+            scale = doubleOption(options, "--scale", 0, 0,
+                                 Double.MAX_VALUE);
+            if (rate == 0) {
+                throw error("--rate must be positive");
+            }
+            output = options.contains("--output")
+                ? options.getFirst("--output") : DEFAULT_OUTPUT;
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            usage(USAGE);
+            return;
+        }
+
+        try {
+            Path file = Files.createTempFile("tablut", ".positions");
+            try {
+                long count = 0;
+                try (DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(
+                             Files.newOutputStream(file)))) {
+                    for (String log : options.get("--")) {
+                        count += replay(log, out);
+                    }
+                }
+                if (count == 0) {
+                    throw error("no positions from won games");
+                }
+                System.out.printf("%d positions%n", count);
+                try (FileChannel channel =
+                         FileChannel.open(file, StandardOpenOption.READ)) {
+                    Tuner tuner = new Tuner(channel, count, start.weights());
+                    if (scale == 0) {
+                        scale = tuner.fitScale();
+                        System.out.printf("scale %.6f%n", scale);
+                    }
+                    tuner.tune(iterations, rate, scale, System.out);
+                    new WeightedEvaluator(tuner.weights()).save(output);
+                }
+            } finally {
+                Files.delete(file);
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A tuner for the COUNT position records in POSITIONS, starting
+     *  from WEIGHTS, which are indexed like TERMS. */
+    Tuner(FileChannel positions, long count, int[] weights) {
+        _positions = positions;
+        _count = count;
+        _weights = new double[TERMS.length];
+        for (int t = 0; t < TERMS.length; t += 1) {
+            _weights[t] = weights[t];
+        }
+    }
+
+    /** Return the current weights, rounded to integers. */
+    int[] weights() {
+        int[] result = new int[TERMS.length];
+        for (int t = 0; t < TERMS.length; t += 1) {
+            result[t] = (int) Math.round(_weights[t]);
+        }
+        return result;
+    }
+
+    /** Return the scale in [MIN_SCALE, MAX_SCALE] that minimizes the
+     *  error of the current weights, found by golden-section search on
+     *  its logarithm. */
+    double fitScale() throws IOException {
+        final double ratio = (Math.sqrt(5) - 1) / 2;
+        double lo = Math.log(MIN_SCALE), hi = Math.log(MAX_SCALE);
+        double a = hi - ratio * (hi - lo), b = lo + ratio * (hi - lo);
+        double errorA = meanError(Math.exp(a)),
+            errorB = meanError(Math.exp(b));
+        for (int k = 2; k < SCALE_PASSES; k += 1) {
+            if (errorA < errorB) {
+                hi = b;
+                b = a;
+                errorB = errorA;
+                a = hi - ratio * (hi - lo);
+                errorA = meanError(Math.exp(a));
+            } else {
+                lo = a;
+                a = b;
+                errorA = errorB;
+                b = lo + ratio * (hi - lo);
+                errorB = meanError(Math.exp(b));
+            }
+        }
+        return Math.exp((lo + hi) / 2);
+    }
+
+    /** Take ITERATIONS gradient steps of at most RATE with scale SCALE,
+     *  reporting progress on LOG. */
+    void tune(int iterations, double rate, double scale, PrintStream log)
+        throws IOException {
+        double[] squares = new double[TERMS.length];
+        for (int k = 0; k < iterations; k += 1) {
+            double[] sums = pass(scale);
+            if (k % REPORT_INTERVAL == 0) {
+                log.printf("step %d: error %.6f%n", k,
+                           sums[TERMS.length] / _count);
+            }
+            for (int t = 0; t < TERMS.length; t += 1) {
+                double gradient = 2 * sums[t] / _count;
+                squares[t] += gradient * gradient;
+                if (squares[t] > 0) {
+                    _weights[t] -= rate * gradient / Math.sqrt(squares[t]);
+                }
+            }
+        }
+        log.printf("final error %.6f%n", meanError(scale));
+    }
+
+    /** Return the mean squared error of the current weights with scale
+     *  SCALE. */
+    double meanError(double scale) throws IOException {
+        return pass(scale)[TERMS.length] / _count;
+    }
+
+    /** Return the sums over all positions of the derivative of the
+     *  squared error with respect to each weight, divided by 2, followed
+     *  by the sum of the squared errors, for the current weights and
+     *  scale SCALE. */
+    private double[] pass(double scale) throws IOException {
+        double[] weights = _weights.clone();
+        double[] total = new double[TERMS.length + 1];
+        for (long first = 0; first < _count; first += BLOCK_POSITIONS) {
+            int n = (int) Math.min(BLOCK_POSITIONS, _count - first);
+            ByteBuffer block = readBlock(first, n);
+            double[] sums =
+                IntStream.range(0, n).parallel()
+                .collect(() -> new double[TERMS.length + 1],
+                         (acc, i) -> accumulate(block, i * RECORD_SIZE,
+                                                weights, scale, acc),
+                         Tuner::add);
+            add(total, sums);
+        }
+        return total;
+    }
+
+    /** Return a buffer holding the N records starting with record
+     *  FIRST. */
+    private ByteBuffer readBlock(long first, int n) throws IOException {
+        _block.clear().limit(n * RECORD_SIZE);
+        long position = first * RECORD_SIZE;
+        while (_block.hasRemaining()) {
+            if (_positions.read(_block, position + _block.position()) < 0) {
+                throw new IOException("position file truncated");
+            }
+        }
+        return _block;
+    }
+
+    /** Add the contributions of the record at OFFSET in BLOCK to ACC,
+     *  as described for pass, using WEIGHTS and SCALE. */
+    private static void accumulate(ByteBuffer block, int offset,
+                                   double[] weights, double scale,
+                                   double[] acc) {
+        double value = 0;
+        for (int t = 0; t < TERMS.length; t += 1) {
+            value += weights[t] * block.getShort(offset + 1 + 2 * t);
+        }
+        double predicted = 1 / (1 + Math.exp(-scale * value));
+        double error = predicted - block.get(offset);
+        acc[TERMS.length] += error * error;
+        double factor = error * predicted * (1 - predicted) * scale;
+        for (int t = 0; t < TERMS.length; t += 1) {
+            acc[t] += factor * block.getShort(offset + 1 + 2 * t);
+        }
+    }
+
+    /** Add the elements of FROM to those of TO. */
+    private static void add(double[] to, double[] from) {
+        for (int i = 0; i < to.length; i += 1) {
+            to[i] += from[i];
+        }
+    }
+
+    /** Replay the games in the log file LOG, writing to OUT a record for
+     *  each position before a move in each game that ended in a win (see
+     *  GameLog).  Returns the number of records written. */
+    private static long replay(String log, DataOutputStream out)
+        throws IOException {
+        long count = 0;
+        try (GameLog games = new GameLog(log)) {
+            while (games.next()) {
+                int outcome = games.winner() == WHITE ? 1 : 0;
+                Board board = new Board();
+                for (Move move : games.moves()) {
+                    out.writeByte(outcome);
+                    for (int feature : WeightedEvaluator.features(board)) {
+                        out.writeShort(feature);
+                    }
+                    board.makeMove(move);
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** The position records. */
+    private final FileChannel _positions;
+    /** Number of records in _positions. */
+    private final long _count;
+    /** The weights being tuned, indexed like TERMS. */
+    private final double[] _weights;
+    /** Buffer holding the block of records being evaluated. */
+    private final ByteBuffer _block =
+        ByteBuffer.allocate(BLOCK_POSITIONS * RECORD_SIZE);
+}
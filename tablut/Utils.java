@@ -3,6 +3,8 @@ package tablut;
 import java.io.InputStream;
 import java.io.IOException;
 
+import ucb.util.CommandArgs;
+
 /** Miscellaneous utilties.
  *  @author P. N. Hilfinger */
 
@@ -21,6 +23,59 @@ class Utils {
         System.exit(1);
     }
 
+    /** Report the usage of a command, given by MESSAGE (which starts
+     *  with the command), and exit. */
+    static void usage(String message) {
+        fatal("Usage: %s%n", message);
+    }
+
+    /** Return the value of the integer option NAME in OPTIONS, or DFLT
+     *  if it is absent.  It is an error if the value is not an integer
+     *  between MIN and MAX, inclusive. */
+    static long longOption(CommandArgs options, String name, long dflt,
+                           long min, long max) {
+        if (!options.contains(name)) {
+            return dflt;
+        }
+        long value;
+        try {
+            value = Long.parseLong(options.getFirst(name));
+        } catch (NumberFormatException excp) {
+            throw error("bad value for %s", name);
+        }
+        if (value < min || value > max) {
+            throw error("%s must be between %d and %d", name, min, max);
+        }
+        return value;
+    }
+
+    /** Return the value of the integer option NAME in OPTIONS, or DFLT
+     *  if it is absent, as for longOption with bounds MIN and MAX. */
+    static int intOption(CommandArgs options, String name, int dflt,
+                         int min, int max) {
+        return (int) longOption(options, name, dflt, min, max);
+    }
+
+    /** Return the value of the numeric option NAME in OPTIONS, or DFLT
+     *  if it is absent.  It is an error if the value is not a number
+     *  between MIN and MAX, inclusive. */
+    static double doubleOption(CommandArgs options, String name,
+                               double dflt, double min, double max) {
+        if (!options.contains(name)) {
+            return dflt;
+        }
+        double value;
+        try {
+            value = Double.parseDouble(options.getFirst(name));
+        } catch (NumberFormatException excp) {
+            throw error("bad value for %s", name);
+        }
+        if (!(value >= min && value <= max)) {
+            throw error("%s must be between %s and %s", name, min, max);
+        }
+        return value;
+    }
+
     /** Return an input stream containing the contents of file NAME in the
      *  directory containing this class.  Throws IOException if no such
      *  file is available.  */
@@ -0,0 +1,163 @@
+package tablut;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+
+import static tablut.Piece.*;
+
+/** An Evaluator that is a weighted sum of position features, each of
+ *  which Board keeps up to date as pieces move.  The weights are read
+ *  from a properties file mapping the names in TERMS to integers;
+ *  terms the file omits keep their default weights.
+ *  @author Sameer Varma
+ */
+class WeightedEvaluator implements Evaluator {
+
+    /** Names of the features, as used in weight files. */
+    static final String[] TERMS = {
+        "white.pieces", "black.pieces", "king.edge.distance",
+        "king.corner.distance", "king.escapes", "king.attackers",
+        "king.mobility", "white.threatened", "black.threatened"
+    };
+
+    /** Indices of the features in TERMS. */
+    static final int WHITE_PIECES = 0, BLACK_PIECES = 1,
+        KING_EDGE_DISTANCE = 2, KING_CORNER_DISTANCE = 3, KING_ESCAPES = 4,
+        KING_ATTACKERS = 5, KING_MOBILITY = 6, WHITE_THREATENED = 7,
+        BLACK_THREATENED = 8;
+
+    /** Name of the resource holding the standard weights. */
+    static final String WEIGHTS_RESOURCE = "weights.properties";
+
+    /** An evaluator using the standard weights from WEIGHTS_RESOURCE, or
+     *  the defaults if it is missing. */
+    WeightedEvaluator() {
+        this(standardWeights());
+    }
+
+    /** An evaluator using the weights in WEIGHTS, which are indexed like
+     *  TERMS. */
+    WeightedEvaluator(int[] weights) {
+        if (weights.length != TERMS.length) {
+            throw Utils.error("expected %d weights", TERMS.length);
+        }
+        _weights = weights.clone();
+    }
+
+    /** Return an evaluator using the weights in the properties file
+     *  FILENAME. */
+    static WeightedEvaluator load(String fileName) {
+        try (InputStream in = new FileInputStream(fileName)) {
+            return new WeightedEvaluator(read(in));
+        } catch (IOException excp) {
+            throw Utils.error("could not read weights: %s",
+                              excp.getMessage());
+        }
+    }
+
+    /** Write my weights to the properties file FILENAME, in the form read
+     *  by load. */
+    void save(String fileName) {
+        try (PrintStream out = new PrintStream(fileName)) {
+            out.println("# Weights of the terms of WeightedEvaluator.");
+            for (int t = 0; t < TERMS.length; t += 1) {
+                out.printf("%s = %d%n", TERMS[t], _weights[t]);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("could not write weights: %s",
+                              excp.getMessage());
+        }
+    }
+
+    @Override
+    public int evaluate(Board board) {
+        int score = 0;
+        for (int t = 0; t < TERMS.length; t += 1) {
+            if (_weights[t] != 0) {
+                score += _weights[t] * feature(board, t);
+            }
+        }
+        return score;
+    }
+
+    /** Return my weights, indexed like TERMS. */
+    int[] weights() {
+        return _weights.clone();
+    }
+
+    /** Return the features of BOARD, indexed like TERMS. */
+    static int[] features(Board board) {
+        int[] result = new int[TERMS.length];
+        for (int t = 0; t < TERMS.length; t += 1) {
+            result[t] = feature(board, t);
+        }
+        return result;
+    }
+
+    /** Return feature TERM of BOARD. */
+    private static int feature(Board board, int term) {
+        switch (term) {
+        case WHITE_PIECES:
+            return board.pieceCount(WHITE);
+        case BLACK_PIECES:
+            return board.pieceCount(BLACK);
+        case KING_EDGE_DISTANCE:
+            return board.kingEdgeDistance();
+        case KING_CORNER_DISTANCE:
+            return board.kingCornerDistance();
+        case KING_ESCAPES:
+            return board.kingEscapes();
+        case KING_ATTACKERS:
+            return board.kingAttackers();
+        case KING_MOBILITY:
+            return board.kingMobility();
+        case WHITE_THREATENED:
+            return board.threatenedCount(WHITE);
+        case BLACK_THREATENED:
+            return board.threatenedCount(BLACK);
+        default:
+            throw new IllegalArgumentException("bad term");
+        }
+    }
+
+    /** Return the weights in the properties read from IN, using the
+     *  defaults for those that are missing. */
+    private static int[] read(InputStream in) throws IOException {
+        Properties props = new Properties();
+        props.load(in);
+        int[] weights = DEFAULT_WEIGHTS.clone();
+        for (int t = 0; t < TERMS.length; t += 1) {
+            String value = props.getProperty(TERMS[t]);
+            if (value != null) {
+                try {
+                    weights[t] = Integer.parseInt(value.trim());
+                } catch (NumberFormatException excp) {
+                    throw Utils.error("bad weight for %s: %s", TERMS[t],
+                                      value);
+                }
+            }
+        }
+        return weights;
+    }
+
+    /** Return the weights in WEIGHTS_RESOURCE, or the defaults if it
+     *  cannot be read. */
+    private static int[] standardWeights() {
+        try (InputStream in = Utils.getResource(WEIGHTS_RESOURCE)) {
+            return read(in);
+        } catch (IOException excp) {
+            return DEFAULT_WEIGHTS.clone();
+        }
+    }
+
+    /** Weights used for terms that a weight file does not mention. */
+    private static final int[] DEFAULT_WEIGHTS = {
+        100, -60, -30, 0, 150, -50, 4, -25, 25
+    };
+
+    /** My weights, indexed like TERMS. */
+    private final int[] _weights;
+}